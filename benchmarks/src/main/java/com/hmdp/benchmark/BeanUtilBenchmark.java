@@ -0,0 +1,60 @@
+package com.hmdp.benchmark;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.bean.copier.CopyOptions;
+import com.hmdp.dto.UserDTO;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 登录用户在 Redis 中以 Hash 保存，每个请求都要在 UserDTO 和 Map 之间转换一次
+ * 对比 BeanUtil 和手写转换的性能
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BeanUtilBenchmark {
+
+    private UserDTO user;
+
+    // 和 opsForHash().entries 返回的类型一致
+    private Map<Object, Object> userMap;
+
+    @Setup
+    public void setup() {
+        user = Samples.user(1010L);
+        userMap = new HashMap<>();
+        userMap.put("id", "1010");
+        userMap.put("nickName", "user_1010");
+        userMap.put("icon", "/imgs/icons/kkjtbcr.jpg");
+    }
+
+    // RefreshTokenInterceptor 中的写法
+    @Benchmark
+    public UserDTO fillBeanWithMap() {
+        return BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
+    }
+
+    @Benchmark
+    public UserDTO manualFromMap() {
+        UserDTO dto = new UserDTO();
+        dto.setId(Long.valueOf((String) userMap.get("id")));
+        dto.setNickName((String) userMap.get("nickName"));
+        dto.setIcon((String) userMap.get("icon"));
+        return dto;
+    }
+
+    // UserServiceImpl.login 中的写法
+    @Benchmark
+    public Map<String, Object> beanToMap() {
+        return BeanUtil.beanToMap(user, new HashMap<>(), CopyOptions.create()
+                .setIgnoreNullValue(true)
+                .setFieldValueEditor((fieldName, fieldValue) -> fieldValue.toString()));
+    }
+}
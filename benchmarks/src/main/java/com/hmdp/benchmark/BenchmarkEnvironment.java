@@ -0,0 +1,113 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.utils.*;
+import io.lettuce.core.resource.ClientResources;
+import io.lettuce.core.resource.DefaultClientResources;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+
+/**
+ * 性能测试的运行环境：启动内嵌的 Redis，再用一个只包含缓存相关组件的 Spring 容器创建 CacheClient、id 生成器
+ * 不连接数据库，数据库查询由各个测试自己模拟
+ */
+public class BenchmarkEnvironment implements AutoCloseable {
+
+    private final RedisServer redisServer;
+
+    private final AnnotationConfigApplicationContext context;
+
+    private BenchmarkEnvironment(RedisServer redisServer, AnnotationConfigApplicationContext context) {
+        this.redisServer = redisServer;
+        this.context = context;
+    }
+
+    public static BenchmarkEnvironment start() throws IOException {
+        int port = freePort();
+        RedisServer redisServer = RedisServer.builder().port(port).setting("maxmemory 512M").build();
+        redisServer.start();
+        System.setProperty("bench.redis.port", String.valueOf(port));
+        // 热点探测的阈值调到最大，避免测试过程中 key 变成热点以后走本地副本，影响 Redis 路径的结果
+        System.setProperty("hmdp.hotkey.threshold", String.valueOf(Integer.MAX_VALUE));
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext(Config.class);
+        return new BenchmarkEnvironment(redisServer, context);
+    }
+
+    public <T> T getBean(Class<T> type) {
+        return context.getBean(type);
+    }
+
+    @Override
+    public void close() {
+        context.close();
+        redisServer.stop();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    @Configuration
+    @Import({LocalCache.class, HotKeyDetector.class, CacheCodecs.class, CacheMetrics.class,
+            CacheRebuildScheduler.class, TrackingCache.class, CacheClient.class, RedisIdWorker.class,
+            SnowflakeIdGenerator.class})
+    static class Config {
+
+        @Bean
+        public RedisProperties redisProperties() {
+            RedisProperties properties = new RedisProperties();
+            properties.setHost("127.0.0.1");
+            properties.setPort(Integer.getInteger("bench.redis.port"));
+            return properties;
+        }
+
+        @Bean(destroyMethod = "shutdown")
+        public ClientResources clientResources() {
+            return DefaultClientResources.create();
+        }
+
+        @Bean
+        public LettuceConnectionFactory redisConnectionFactory(RedisProperties properties, ClientResources resources) {
+            return new LettuceConnectionFactory(
+                    new RedisStandaloneConfiguration(properties.getHost(), properties.getPort()),
+                    LettuceClientConfiguration.builder().clientResources(resources).build());
+        }
+
+        @Bean
+        public StringRedisTemplate stringRedisTemplate(RedisConnectionFactory connectionFactory) {
+            return new StringRedisTemplate(connectionFactory);
+        }
+
+        // 和 RedisConfig 中的配置一致
+        @Bean
+        public RedisTemplate<String, byte[]> byteRedisTemplate(RedisConnectionFactory connectionFactory) {
+            RedisTemplate<String, byte[]> template = new RedisTemplate<>();
+            template.setConnectionFactory(connectionFactory);
+            template.setKeySerializer(RedisSerializer.string());
+            template.setValueSerializer(RedisSerializer.byteArray());
+            return template;
+        }
+
+        @Bean
+        public MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+    }
+}
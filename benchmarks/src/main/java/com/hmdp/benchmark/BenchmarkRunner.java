@@ -0,0 +1,52 @@
+package com.hmdp.benchmark;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 运行所有的性能测试，完整结果写入 jmh-result.json，最后打印每个测试的 ops/s 和 p99
+ * 用法：java -jar benchmarks/target/benchmarks.jar [测试名的正则，例如 CacheClient]
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : BenchmarkRunner.class.getPackage().getName();
+        Options options = new OptionsBuilder()
+                .include(include)
+                .resultFormat(ResultFormatType.JSON)
+                .result("jmh-result.json")
+                .build();
+        Collection<RunResult> results = new Runner(options).run();
+
+        // 测试名（带参数） -> [ops/s, p99 微秒]
+        Map<String, double[]> summary = new TreeMap<>();
+        for (RunResult result : results) {
+            BenchmarkParams params = result.getParams();
+            StringBuilder name = new StringBuilder(params.getBenchmark().replace(include + ".", ""));
+            for (String key : params.getParamsKeys()) {
+                name.append(' ').append(key).append('=').append(params.getParam(key));
+            }
+            name.append(" threads=").append(params.getThreads());
+            double[] row = summary.computeIfAbsent(name.toString(), k -> new double[]{Double.NaN, Double.NaN});
+            if (params.getMode() == Mode.Throughput) {
+                row[0] = result.getPrimaryResult().getScore();
+            } else if (params.getMode() == Mode.SampleTime) {
+                // SampleTime 的单位是 s/op，转为微秒
+                row[1] = result.getPrimaryResult().getStatistics().getPercentile(99.0) * 1_000_000;
+            }
+        }
+        System.out.println();
+        System.out.printf("%-80s %15s %12s%n", "benchmark", "ops/s", "p99(us)");
+        summary.forEach((name, row) -> System.out.printf("%-80s %15.1f %12.1f%n", name, row[0], row[1]));
+    }
+}
@@ -0,0 +1,113 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.LocalCache;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * CacheClient 三种查询方式在命中、未命中、并发过期时的性能
+ * 数据库查询用固定的 0.2 ms 延迟模拟
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CacheClientBenchmark {
+
+    // 没有注册本地缓存的前缀，每次都访问 Redis
+    private static final String PREFIX = "bench:shop:";
+    // 注册了本地缓存的前缀
+    private static final String LOCAL_PREFIX = "bench:local:";
+
+    private static final long DB_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    private static final long HIT_ID = 1L;
+    private static final long LOGICAL_HIT_ID = 2L;
+    private static final long LOGICAL_EXPIRED_ID = 3L;
+    private static final long MUTEX_EXPIRING_ID = 4L;
+
+    private BenchmarkEnvironment environment;
+
+    private CacheClient cacheClient;
+
+    // 未命中的测试每次使用新的 id
+    private final AtomicLong missIds = new AtomicLong(1_000_000);
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        environment = BenchmarkEnvironment.start();
+        cacheClient = environment.getBean(CacheClient.class);
+        environment.getBean(LocalCache.class).register(LOCAL_PREFIX, 1000, 60L, TimeUnit.SECONDS);
+        cacheClient.set(PREFIX + HIT_ID, Samples.shop(HIT_ID), 30L, TimeUnit.MINUTES);
+        cacheClient.set(LOCAL_PREFIX + HIT_ID, Samples.shop(HIT_ID), 30L, TimeUnit.MINUTES);
+        cacheClient.setWithLogicalExpire(PREFIX + LOGICAL_HIT_ID, Samples.shop(LOGICAL_HIT_ID), 30L, TimeUnit.MINUTES);
+        // 过期时间为 0，重建以后仍然是过期的，每次读取都会走过期的分支
+        cacheClient.setWithLogicalExpire(PREFIX + LOGICAL_EXPIRED_ID, Samples.shop(LOGICAL_EXPIRED_ID), 0L, TimeUnit.SECONDS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        environment.close();
+    }
+
+    private Shop loadFromDb(Long id) {
+        LockSupport.parkNanos(DB_NANOS);
+        return Samples.shop(id);
+    }
+
+    @Benchmark
+    public Shop passThroughHit() {
+        return cacheClient.queryWithPassThrough(PREFIX, HIT_ID, Shop.class, this::loadFromDb, 30L, TimeUnit.MINUTES);
+    }
+
+    @Benchmark
+    public Shop passThroughLocalHit() {
+        return cacheClient.queryWithPassThrough(LOCAL_PREFIX, HIT_ID, Shop.class, this::loadFromDb, 30L, TimeUnit.MINUTES);
+    }
+
+    @Benchmark
+    public Shop passThroughMiss() {
+        return cacheClient.queryWithPassThrough(
+                PREFIX, missIds.incrementAndGet(), Shop.class, this::loadFromDb, 30L, TimeUnit.MINUTES);
+    }
+
+    @Benchmark
+    public Shop mutexHit() {
+        return cacheClient.queryWithMutex(PREFIX, HIT_ID, Shop.class, this::loadFromDb, 30L, TimeUnit.MINUTES);
+    }
+
+    @Benchmark
+    public Shop mutexMiss() {
+        return cacheClient.queryWithMutex(
+                PREFIX, missIds.incrementAndGet(), Shop.class, this::loadFromDb, 30L, TimeUnit.MINUTES);
+    }
+
+    // 8 个线程读同一个只缓存 1 ms 的 key，不断地过期、竞争锁、重建
+    @Benchmark
+    @Threads(8)
+    public Shop mutexContendedExpiry() {
+        return cacheClient.queryWithMutex(
+                PREFIX, MUTEX_EXPIRING_ID, Shop.class, this::loadFromDb, 1L, TimeUnit.MILLISECONDS);
+    }
+
+    @Benchmark
+    public Shop logicalExpireHit() {
+        return cacheClient.queryWithLogicalExpire(
+                PREFIX, LOGICAL_HIT_ID, Shop.class, this::loadFromDb, 30L, TimeUnit.MINUTES);
+    }
+
+    // 8 个线程读同一个已经过期的 key，返回旧数据，同时竞争后台重建
+    @Benchmark
+    @Threads(8)
+    public Shop logicalExpireContendedExpiry() {
+        return cacheClient.queryWithLogicalExpire(
+                PREFIX, LOGICAL_EXPIRED_ID, Shop.class, this::loadFromDb, 0L, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,112 @@
+package com.hmdp.benchmark;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.CacheCodecs;
+import com.hmdp.utils.CacheMetrics;
+import com.hmdp.utils.RedisData;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 原来直接使用 JSONUtil 的写法和各个编解码器对 Shop、逻辑过期的 RedisData 编解码的性能
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    private static final String KEY = "bench:shop:1";
+
+    @State(Scope.Benchmark)
+    public static class CodecState {
+
+        @Param({"json", "jackson", "binary"})
+        public String codec;
+
+        CacheCodecs cacheCodecs;
+        Shop shop;
+        LocalDateTime expireTime;
+        byte[] shopBytes;
+        byte[] redisDataBytes;
+
+        @Setup
+        public void setup() {
+            cacheCodecs = new CacheCodecs(new CacheMetrics(new SimpleMeterRegistry()));
+            cacheCodecs.register("bench:", codec);
+            shop = Samples.shop(1);
+            expireTime = LocalDateTime.now().plusMinutes(30);
+            shopBytes = cacheCodecs.encode(KEY, shop);
+            redisDataBytes = cacheCodecs.encodeWithLogicalExpire(KEY, shop, expireTime);
+        }
+    }
+
+    // 升级之前的写法：整个对象转为 JSON 字符串
+    @State(Scope.Benchmark)
+    public static class LegacyState {
+
+        Shop shop;
+        RedisData redisData;
+        String shopJson;
+        String redisDataJson;
+
+        @Setup
+        public void setup() {
+            shop = Samples.shop(1);
+            redisData = new RedisData();
+            redisData.setData(shop);
+            redisData.setExpireTime(LocalDateTime.now().plusMinutes(30));
+            shopJson = JSONUtil.toJsonStr(shop);
+            redisDataJson = JSONUtil.toJsonStr(redisData);
+        }
+    }
+
+    @Benchmark
+    public byte[] encodeShop(CodecState state) {
+        return state.cacheCodecs.encode(KEY, state.shop);
+    }
+
+    @Benchmark
+    public Shop decodeShop(CodecState state) {
+        return state.cacheCodecs.decode(KEY, state.shopBytes, Shop.class);
+    }
+
+    @Benchmark
+    public byte[] encodeRedisData(CodecState state) {
+        return state.cacheCodecs.encodeWithLogicalExpire(KEY, state.shop, state.expireTime);
+    }
+
+    @Benchmark
+    public RedisData decodeRedisData(CodecState state) {
+        return state.cacheCodecs.decodeWithLogicalExpire(KEY, state.redisDataBytes, Shop.class);
+    }
+
+    @Benchmark
+    public byte[] legacyEncodeShop(LegacyState state) {
+        return JSONUtil.toJsonStr(state.shop).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public Shop legacyDecodeShop(LegacyState state) {
+        return JSONUtil.toBean(state.shopJson, Shop.class);
+    }
+
+    @Benchmark
+    public byte[] legacyEncodeRedisData(LegacyState state) {
+        return JSONUtil.toJsonStr(state.redisData).getBytes(StandardCharsets.UTF_8);
+    }
+
+    // 原来的 queryWithLogicalExpire 需要解析两次
+    @Benchmark
+    public Shop legacyDecodeRedisData(LegacyState state) {
+        RedisData redisData = JSONUtil.toBean(state.redisDataJson, RedisData.class);
+        return JSONUtil.toBean((JSONObject) redisData.getData(), Shop.class);
+    }
+}
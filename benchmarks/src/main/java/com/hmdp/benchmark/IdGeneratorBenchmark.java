@@ -0,0 +1,50 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.utils.IdGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 订单 id 生成单线程和多线程的性能
+ * redis：RedisIdWorker 每个 id 访问一次 Redis，segment：RedisIdWorker 的号段模式，snowflake：SnowflakeIdGenerator
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IdGeneratorBenchmark {
+
+    @Param({"redis", "segment", "snowflake"})
+    public String mode;
+
+    private BenchmarkEnvironment environment;
+
+    private IdGenerator idGenerator;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        System.setProperty("hmdp.id.generator", "snowflake".equals(mode) ? "snowflake" : "redis");
+        System.setProperty("hmdp.id.segment-size", "segment".equals(mode) ? "1000" : "0");
+        environment = BenchmarkEnvironment.start();
+        idGenerator = environment.getBean(IdGenerator.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        environment.close();
+    }
+
+    @Benchmark
+    public long nextId() {
+        return idGenerator.nextId("order");
+    }
+
+    @Benchmark
+    @Threads(8)
+    public long nextIdContended() {
+        return idGenerator.nextId("order");
+    }
+}
@@ -0,0 +1,47 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Shop;
+
+import java.time.LocalDateTime;
+
+/**
+ * 测试用的数据，字段长度接近线上的店铺
+ */
+public class Samples {
+
+    public static Shop shop(long id) {
+        Shop shop = new Shop();
+        shop.setId(id);
+        shop.setName("103茶餐厅（拱墅万达广场店）" + id);
+        shop.setTypeId(1L);
+        StringBuilder images = new StringBuilder();
+        for (int i = 0; i < 6; i++) {
+            if (i > 0) {
+                images.append(',');
+            }
+            images.append("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg");
+        }
+        shop.setImages(images.toString());
+        shop.setArea("大关");
+        shop.setAddress("金华路锦昌文华苑29号，拱墅区万达广场B座三楼步行街入口往左一百米处");
+        shop.setX(120.149192);
+        shop.setY(30.316078);
+        shop.setAvgPrice(80L);
+        shop.setSold(4215);
+        shop.setComments(3035);
+        shop.setScore(37);
+        shop.setOpenHours("10:00-22:00");
+        shop.setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39));
+        shop.setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19));
+        return shop;
+    }
+
+    public static UserDTO user(long id) {
+        UserDTO user = new UserDTO();
+        user.setId(id);
+        user.setNickName("user_" + id);
+        user.setIcon("/imgs/icons/kkjtbcr.jpg");
+        return user;
+    }
+}
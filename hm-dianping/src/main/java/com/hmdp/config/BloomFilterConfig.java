@@ -0,0 +1,104 @@
+package com.hmdp.config;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.User;
+import com.hmdp.entity.Voucher;
+import com.hmdp.mapper.BlogMapper;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.UserMapper;
+import com.hmdp.mapper.VoucherMapper;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.RedisBloomFilter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.BLOOM_SYNC_CHANNEL;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_HASH_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+
+/**
+ * 每种实体一个布隆过滤器，拦截不存在的 id，防止缓存穿透
+ */
+@Slf4j
+@Configuration
+public class BloomFilterConfig {
+
+    // 预计的元素个数和误判率
+    @Value("${hmdp.bloom.expected-insertions:1000000}")
+    private long expectedInsertions;
+    @Value("${hmdp.bloom.fpp:0.01}")
+    private double fpp;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Bean
+    public RedisBloomFilter shopBloomFilter(ShopMapper shopMapper) {
+        return new RedisBloomFilter("shop", expectedInsertions, fpp, stringRedisTemplate,
+                () -> shopMapper.selectObjs(new QueryWrapper<Shop>().select("id")));
+    }
+
+    @Bean
+    public RedisBloomFilter userBloomFilter(UserMapper userMapper) {
+        return new RedisBloomFilter("user", expectedInsertions, fpp, stringRedisTemplate,
+                () -> userMapper.selectObjs(new QueryWrapper<User>().select("id")));
+    }
+
+    @Bean
+    public RedisBloomFilter blogBloomFilter(BlogMapper blogMapper) {
+        return new RedisBloomFilter("blog", expectedInsertions, fpp, stringRedisTemplate,
+                () -> blogMapper.selectObjs(new QueryWrapper<Blog>().select("id")));
+    }
+
+    @Bean
+    public RedisBloomFilter voucherBloomFilter(VoucherMapper voucherMapper) {
+        return new RedisBloomFilter("voucher", expectedInsertions, fpp, stringRedisTemplate,
+                () -> voucherMapper.selectObjs(new QueryWrapper<Voucher>().select("id")));
+    }
+
+    // 启动完成以后初始化所有的布隆过滤器，并订阅其他节点的同步消息
+    @EventListener(ApplicationReadyEvent.class)
+    public void initBloomFilters(ApplicationReadyEvent event) {
+        List<RedisBloomFilter> filters = event.getApplicationContext()
+                .getBeanProvider(RedisBloomFilter.class).orderedStream().collect(Collectors.toList());
+        Map<String, RedisBloomFilter> byName = filters.stream()
+                .collect(Collectors.toMap(RedisBloomFilter::getName, Function.identity()));
+        // 消息格式：add:{name}:{id} 或者 reload:{name}
+        event.getApplicationContext().getBean(RedisMessageListenerContainer.class).addMessageListener((message, pattern) -> {
+            String[] parts = new String(message.getBody(), StandardCharsets.UTF_8).split(":", 3);
+            RedisBloomFilter filter = byName.get(parts[1]);
+            if (filter == null) {
+                return;
+            }
+            if ("add".equals(parts[0])) {
+                filter.addLocal(parts[2]);
+            } else if ("reload".equals(parts[0])) {
+                filter.reloadAndReplay();
+            }
+        }, new ChannelTopic(BLOOM_SYNC_CHANNEL));
+        for (RedisBloomFilter filter : filters) {
+            filter.init();
+        }
+        // 商铺的缓存查询先经过布隆过滤器
+        CacheClient cacheClient = event.getApplicationContext().getBean(CacheClient.class);
+        cacheClient.registerBloomFilter(CACHE_SHOP_KEY, byName.get("shop"));
+        cacheClient.registerBloomFilter(CACHE_SHOP_HASH_KEY, byName.get("shop"));
+        log.info("布隆过滤器初始化完成：{}", byName.keySet());
+    }
+}
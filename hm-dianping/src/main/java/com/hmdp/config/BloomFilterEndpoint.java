@@ -0,0 +1,38 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.RedisBloomFilter;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.boot.actuate.endpoint.web.WebEndpointResponse;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Map;
+
+/**
+ * 布隆过滤器的管理接口，通过 actuator 暴露在管理端口上：POST /actuator/bloomfilter/{name}
+ * 重建会扫描整张表的 id，不能放在对外的接口中
+ */
+@Component
+@Endpoint(id = "bloomfilter")
+public class BloomFilterEndpoint {
+
+    // bean 名称 -> 布隆过滤器，例如 shopBloomFilter
+    @Resource
+    private Map<String, RedisBloomFilter> bloomFilters;
+
+    /**
+     * 从数据库重建布隆过滤器，删除数据以后调用
+     * @param name 过滤器名称：shop、user、blog、voucher
+     */
+    @WriteOperation
+    public WebEndpointResponse<Void> rebuild(@Selector String name) {
+        RedisBloomFilter bloomFilter = bloomFilters.get(name + "BloomFilter");
+        if (bloomFilter == null) {
+            return new WebEndpointResponse<>(WebEndpointResponse.STATUS_NOT_FOUND);
+        }
+        bloomFilter.rebuild();
+        return new WebEndpointResponse<>(WebEndpointResponse.STATUS_NO_CONTENT);
+    }
+}
@@ -0,0 +1,43 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.CacheCodecs;
+import com.hmdp.utils.LocalCache;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+@Configuration
+public class CacheConfig {
+
+    public CacheConfig(LocalCache localCache, CacheCodecs cacheCodecs,
+                       @Value("${hmdp.cache.codec.shop:binary}") String shopCodec,
+                       @Value("${hmdp.cache.codec.user:binary}") String userCodec) {
+        // 注册需要本地缓存的前缀
+        localCache.register(CACHE_SHOP_KEY, CACHE_SHOP_LOCAL_SIZE, CACHE_SHOP_LOCAL_TTL, TimeUnit.SECONDS);
+        // 每个前缀写入时使用的编码格式，没有配置的使用 JSON
+        cacheCodecs.register(CACHE_SHOP_KEY, shopCodec);
+        cacheCodecs.register(CACHE_USER_KEY, userCodec);
+        // 店铺类型整体以数组的形式缓存，只有 jackson 能直接编解码数组
+        cacheCodecs.register(CACHE_SHOPTYPE_KEY, "jackson");
+    }
+
+    // 订阅缓存失效的频道，收到消息以后删除本地缓存，其他频道的监听器也注册在这个容器上
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(
+            RedisConnectionFactory connectionFactory, LocalCache localCache) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener(
+                (message, pattern) -> localCache.invalidate(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+        return container;
+    }
+}
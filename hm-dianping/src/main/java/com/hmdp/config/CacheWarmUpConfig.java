@@ -0,0 +1,165 @@
+package com.hmdp.config;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.mapper.SeckillVoucherMapper;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.ShopTypeMapper;
+import com.hmdp.utils.CacheClient;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 启动时预热缓存，避免发布或者 Redis 切换以后的流量全部打到数据库
+ * 热点数据（店铺类型、秒杀库存、销量最高的店铺）在 ApplicationReadyEvent 中同步加载，
+ * 加载期间 readiness 为 REFUSING_TRAFFIC，/actuator/health/readiness 返回 503，加载完成以后切换为 ACCEPTING_TRAFFIC；
+ * Tomcat 在预热期间已经可以接收请求，需要负载均衡按照 readiness 探测摘除节点，直连的请求仍然会在预热期间到达；
+ * 剩下的店铺在后台线程中继续分批加载，不影响 readiness
+ */
+@Slf4j
+@Configuration
+public class CacheWarmUpConfig {
+
+    @Value("${hmdp.warmup.enabled:true}")
+    private boolean enabled;
+    @Value("${hmdp.warmup.page-size:500}")
+    private int pageSize;
+    @Value("${hmdp.warmup.hot-shops:1000}")
+    private int hotShops;
+
+    @Resource
+    private ShopMapper shopMapper;
+    @Resource
+    private ShopTypeMapper shopTypeMapper;
+    @Resource
+    private SeckillVoucherMapper seckillVoucherMapper;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private ApplicationEventPublisher eventPublisher;
+
+    @Order(1)
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        if (!enabled) {
+            return;
+        }
+        AvailabilityChangeEvent.publish(eventPublisher, this, ReadinessState.REFUSING_TRAFFIC);
+        try {
+            warmUpHot();
+        } finally {
+            AvailabilityChangeEvent.publish(eventPublisher, this, ReadinessState.ACCEPTING_TRAFFIC);
+        }
+    }
+
+    private void warmUpHot() {
+        long begin = System.currentTimeMillis();
+        // 1.店铺类型，按照 ShopTypeServiceImpl 读取的格式写入；和店铺一样只写入不存在的缓存，不覆盖已有的
+        List<ShopType> shopTypes = shopTypeMapper.selectList(new QueryWrapper<ShopType>().orderByAsc("sort"));
+        cacheClient.setIfAbsent(CACHE_SHOPTYPE_KEY, shopTypes.toArray(new ShopType[0]), CACHE_SHOPTYPE_TTL, TimeUnit.MINUTES);
+        // 2.秒杀库存，只写入 Redis 中不存在的，已有的库存正在被扣减，不能覆盖
+        int stocks = warmUpSeckillStock();
+        // 3.热点店铺，已经在缓存中的不覆盖，滚动发布时也不会清掉其他节点的本地缓存
+        List<Shop> hot = shopMapper.selectList(new QueryWrapper<Shop>()
+                .orderByDesc("sold").last("limit " + hotShops));
+        for (int from = 0; from < hot.size(); from += pageSize) {
+            writeShops(hot.subList(from, Math.min(from + pageSize, hot.size())));
+        }
+        log.info("热点缓存预热完成：店铺类型 {} 个，秒杀库存 {} 个，店铺 {} 个，耗时 {} ms",
+                shopTypes.size(), stocks, hot.size(), System.currentTimeMillis() - begin);
+        // 4.剩下的店铺在后台加载
+        Set<Long> hotIds = hot.stream().map(Shop::getId).collect(Collectors.toSet());
+        Thread thread = new Thread(() -> warmUpRemainingShops(hotIds), "cache-warm-up");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private int warmUpSeckillStock() {
+        int total = 0;
+        long lastId = 0;
+        while (true) {
+            List<SeckillVoucher> vouchers = seckillVoucherMapper.selectList(new QueryWrapper<SeckillVoucher>()
+                    .gt("voucher_id", lastId).orderByAsc("voucher_id").last("limit " + pageSize));
+            if (vouchers.isEmpty()) {
+                return total;
+            }
+            // 库存已经分片的优惠券由 SeckillStock 管理，不写入单个的库存 key
+            List<String> shards = stringRedisTemplate.opsForValue().multiGet(vouchers.stream()
+                    .map(voucher -> SECKILL_STOCK_SHARDS_KEY + voucher.getVoucherId()).collect(Collectors.toList()));
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (int i = 0; i < vouchers.size(); i++) {
+                    if (shards != null && shards.get(i) != null) {
+                        continue;
+                    }
+                    SeckillVoucher voucher = vouchers.get(i);
+                    connection.stringCommands().set(
+                            (SECKILL_STOCK_KEY + voucher.getVoucherId()).getBytes(StandardCharsets.UTF_8),
+                            voucher.getStock().toString().getBytes(StandardCharsets.UTF_8),
+                            Expiration.persistent(), RedisStringCommands.SetOption.ifAbsent());
+                }
+                return null;
+            });
+            total += vouchers.size();
+            lastId = vouchers.get(vouchers.size() - 1).getVoucherId();
+        }
+    }
+
+    // 按照 id 分页，不使用 offset，避免越往后越慢
+    private void warmUpRemainingShops(Set<Long> skipIds) {
+        try {
+            long begin = System.currentTimeMillis();
+            long lastId = 0;
+            int total = 0;
+            while (true) {
+                List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                        .gt("id", lastId).orderByAsc("id").last("limit " + pageSize));
+                if (shops.isEmpty()) {
+                    break;
+                }
+                lastId = shops.get(shops.size() - 1).getId();
+                List<Shop> batch = shops.stream().filter(shop -> !skipIds.contains(shop.getId()))
+                        .collect(Collectors.toList());
+                writeShops(batch);
+                total += batch.size();
+                long elapsed = Math.max(1, System.currentTimeMillis() - begin);
+                log.info("店铺缓存预热中：已加载 {} 个，{} 个/秒", total, total * 1000L / elapsed);
+            }
+            log.info("店铺缓存预热完成：共 {} 个，耗时 {} ms", total, System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            log.error("店铺缓存预热失败", e);
+        }
+    }
+
+    private void writeShops(List<Shop> shops) {
+        if (shops.isEmpty()) {
+            return;
+        }
+        Map<String, Shop> values = shops.stream()
+                .collect(Collectors.toMap(shop -> CACHE_SHOP_KEY + shop.getId(), Function.identity()));
+        cacheClient.setBatchIfAbsentWithLogicalExpire(values, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
+}
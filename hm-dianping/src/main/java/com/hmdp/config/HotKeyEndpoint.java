@@ -0,0 +1,30 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.HotKeyDetector;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.List;
+
+/**
+ * 热点 key 的查询接口，通过 actuator 暴露在管理端口上：GET /actuator/hotkeys
+ * 热点 key 反映了真实的访问流量，不能放在对外的接口中
+ */
+@Component
+@Endpoint(id = "hotkeys")
+public class HotKeyEndpoint {
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    /**
+     * 查询当前节点的热点 key
+     * @return 热点 key 以及估算的 QPS，按照 QPS 从高到低排列
+     */
+    @ReadOperation
+    public List<HotKeyDetector.HotKey> hotKeys() {
+        return hotKeyDetector.hotKeys();
+    }
+}
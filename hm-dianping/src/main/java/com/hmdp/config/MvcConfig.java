@@ -1,8 +1,11 @@
 package com.hmdp.config;
 
 import com.hmdp.utils.LoginInterceptor;
+import com.hmdp.utils.RateLimitInterceptor;
+import com.hmdp.utils.RateLimiter;
 import com.hmdp.utils.RefreshTokenInterceptor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
@@ -16,6 +19,12 @@ public class MvcConfig implements WebMvcConfigurer {
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private RateLimiter rateLimiter;
+
+    @Value("${hmdp.rate-limit.trusted-proxies:127.0.0.1,0:0:0:0:0:0:0:1}")
+    private String[] trustedProxies;
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         // 拦截器按照添顺序执行
@@ -33,5 +42,8 @@ public class MvcConfig implements WebMvcConfigurer {
                         "/user/login"
                 ).order(1);
 
+        // 限流拦截器，只处理带有 @RateLimit 的接口
+        registry.addInterceptor(new RateLimitInterceptor(rateLimiter, trustedProxies)).order(2);
+
     }
 }
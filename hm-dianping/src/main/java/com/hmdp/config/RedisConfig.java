@@ -1,10 +1,21 @@
 package com.hmdp.config;
 
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.codec.ByteArrayCodec;
+import io.lettuce.core.codec.RedisCodec;
+import io.lettuce.core.codec.StringCodec;
+import io.lettuce.core.resource.ClientResources;
 import org.redisson.Redisson;
 import org.redisson.api.RedissonClient;
 import org.redisson.config.Config;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
 
 @Configuration
 public class RedisConfig {
@@ -17,4 +28,36 @@ public class RedisConfig {
         // 创建客户端
         return Redisson.create(config);
     }
-}
\ No newline at end of file
+
+    // 缓存值使用字节数组存储，由 CacheCodecs 负责编解码
+    @Bean
+    public RedisTemplate<String, byte[]> byteRedisTemplate(RedisConnectionFactory connectionFactory) {
+        RedisTemplate<String, byte[]> template = new RedisTemplate<>();
+        template.setConnectionFactory(connectionFactory);
+        template.setKeySerializer(RedisSerializer.string());
+        template.setValueSerializer(RedisSerializer.byteArray());
+        return template;
+    }
+
+    // AsyncCacheClient 使用的 Lettuce 客户端，和 RedisTemplate 共用 IO 线程，地址读取 spring.redis 的配置
+    @Bean(destroyMethod = "shutdown")
+    public RedisClient asyncRedisClient(RedisProperties properties, ClientResources clientResources) {
+        RedisURI.Builder builder = RedisURI.builder()
+                .withHost(properties.getHost())
+                .withPort(properties.getPort())
+                .withDatabase(properties.getDatabase());
+        if (properties.getPassword() != null) {
+            builder.withPassword(properties.getPassword().toCharArray());
+        }
+        if (properties.getTimeout() != null) {
+            builder.withTimeout(properties.getTimeout());
+        }
+        return RedisClient.create(clientResources, builder.build());
+    }
+
+    // key 是字符串，value 是字节数组，和 byteRedisTemplate 的格式一致；Lettuce 的连接是线程安全的，所有请求共用一个
+    @Bean(destroyMethod = "close")
+    public StatefulRedisConnection<String, byte[]> asyncRedisConnection(RedisClient asyncRedisClient) {
+        return asyncRedisClient.connect(RedisCodec.of(StringCodec.UTF8, ByteArrayCodec.INSTANCE));
+    }
+}
@@ -0,0 +1,35 @@
+package com.hmdp.config;
+
+import com.hmdp.service.IVoucherService;
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+
+/**
+ * 修改秒杀券库存的管理接口，通过 actuator 暴露在管理端口上：POST /actuator/seckillstock/{voucherId}，body：{"stock": 100}
+ * 修改库存会清除所有节点的售罄标记，不能放在对外的、不需要登录的 /voucher 接口中
+ */
+@Component
+@Endpoint(id = "seckillstock")
+public class SeckillStockEndpoint {
+
+    @Resource
+    private IVoucherService voucherService;
+
+    /**
+     * 修改秒杀券的库存
+     * @param voucherId 优惠券id
+     * @param stock 新的库存
+     */
+    @WriteOperation
+    public void updateStock(@Selector Long voucherId, int stock) {
+        if (stock < 0) {
+            throw new InvalidEndpointRequestException("库存不能小于 0", "stock must not be negative");
+        }
+        voucherService.updateSeckillStock(voucherId, stock);
+    }
+}
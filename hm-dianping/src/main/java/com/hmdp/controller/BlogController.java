@@ -14,6 +14,7 @@ import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * <p>
@@ -62,9 +63,10 @@ public class BlogController {
         return blogService.queryHotBlog(current);
     }
 
+    // 返回 CompletableFuture，使用 Servlet 的异步响应，等待 Redis 和数据库时不占用 Tomcat 线程
     @GetMapping("/{id}")
-    public Result queryBlogById(@PathVariable("id") Integer id) {
-        return blogService.queryBlogById(id);
+    public CompletableFuture<Result> queryBlogById(@PathVariable("id") Integer id) {
+        return blogService.queryBlogByIdAsync(id);
     }
 
     @GetMapping("/likes/{id}")
@@ -10,6 +10,7 @@ import com.hmdp.utils.SystemConstants;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import java.util.List;
 
 /**
  * <p>
@@ -36,6 +37,16 @@ public class ShopController {
         return shopService.queryById(id);
     }
 
+    /**
+     * 批量查询商铺摘要，列表页使用
+     * @param ids 商铺id，逗号分隔
+     * @return 商铺的名称、图片、均价、评分等
+     */
+    @GetMapping("/summary")
+    public Result queryShopSummaries(@RequestParam("ids") List<Long> ids) {
+        return Result.ok(shopService.queryShopSummaries(ids));
+    }
+
     /**
      * 新增商铺信息
      * @param shop 商铺数据
@@ -9,6 +9,7 @@ import com.hmdp.entity.User;
 import com.hmdp.entity.UserInfo;
 import com.hmdp.service.IUserInfoService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.RedisBloomFilter;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.*;
@@ -35,6 +36,9 @@ public class UserController {
     @Resource
     private IUserInfoService userInfoService;
 
+    @Resource
+    private RedisBloomFilter userBloomFilter;
+
     /**
      * 发送手机验证码
      */
@@ -88,6 +92,10 @@ public class UserController {
 
     @GetMapping("/{id}")
     public Result queryUserById(@PathVariable("id") Long userId) {
+        // 布隆过滤器判断不存在的直接返回
+        if (!userBloomFilter.mightContain(userId)) {
+            return Result.fail("用户不存在");
+        }
         // 查询详情
         User user = userService.getById(userId);
         if (user == null) {
@@ -2,6 +2,9 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +16,15 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface VoucherOrderMapper extends BaseMapper<VoucherOrder> {
 
+    /**
+     * 一条 INSERT 语句写入多个订单
+     */
+    int insertBatch(@Param("orders") List<VoucherOrder> orders);
+
+    /**
+     * 一条 INSERT IGNORE 写入多个订单，主键或者 uk_user_voucher 重复的订单被忽略，不计入影响行数，不依赖连接参数；
+     * IGNORE 也会把非空、截断等错误降级为警告，这里只写入程序生成的三个非空的 bigint，不会出现这类错误
+     * @return 实际插入的订单数
+     */
+    int insertIgnoreBatch(@Param("orders") List<VoucherOrder> orders);
 }
@@ -4,6 +4,8 @@ import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Blog;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * <p>
  *  服务类
@@ -16,6 +18,8 @@ public interface IBlogService extends IService<Blog> {
 
     Result queryBlogById(Integer id);
 
+    CompletableFuture<Result> queryBlogByIdAsync(Integer id);
+
     Result queryHotBlog(Integer current);
 
     Result likeBlog(Long id);
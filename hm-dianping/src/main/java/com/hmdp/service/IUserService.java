@@ -3,9 +3,13 @@ package com.hmdp.service;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 
 import javax.servlet.http.HttpSession;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * <p>
@@ -26,4 +30,8 @@ public interface IUserService extends IService<User> {
     Result sign();
 
     Result signCount();
+
+    Map<Long, UserDTO> queryUserDTOByIds(Collection<Long> ids);
+
+    CompletableFuture<UserDTO> queryUserDTOAsync(Long id);
 }
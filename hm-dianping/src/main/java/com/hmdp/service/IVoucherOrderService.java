@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -19,4 +21,15 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
     Result createVoucherOrder(Long voucherId);
 
     void createVoucherOrderAsync(VoucherOrder voucherOrder);
+
+    /**
+     * 创建订单，由数据库的唯一索引保证一人一单，不加锁
+     */
+    void createVoucherOrderUnique(VoucherOrder voucherOrder);
+
+    /**
+     * 批量创建订单，在一个事务中完成
+     * @return 实际创建的订单数，重复下单和库存不足的订单会被跳过
+     */
+    int createVoucherOrders(List<VoucherOrder> voucherOrders);
 }
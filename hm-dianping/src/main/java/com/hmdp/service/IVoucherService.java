@@ -17,4 +17,9 @@ public interface IVoucherService extends IService<Voucher> {
     Result queryVoucherOfShop(Long shopId);
 
     void addSeckillVoucher(Voucher voucher);
+
+    /**
+     * 修改秒杀券的库存，同时修改数据库和 Redis，补充库存以后清除售罄标记
+     */
+    void updateSeckillStock(Long voucherId, Integer stock);
 }
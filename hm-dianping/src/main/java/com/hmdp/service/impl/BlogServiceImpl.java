@@ -14,20 +14,28 @@ import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.hmdp.service.IFollowService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.AsyncCacheClient;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.LocalCache;
+import com.hmdp.utils.RedisBloomFilter;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 /**
@@ -48,9 +56,23 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     @Autowired
     private StringRedisTemplate redisTemplate;
 
+    @Resource
+    private RedisBloomFilter blogBloomFilter;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+    @Resource
+    private LocalCache localCache;
+    @Resource
+    private AsyncCacheClient asyncCacheClient;
+
     // 根据id查询博客
     @Override
     public Result queryBlogById(Integer id) {
+        // 布隆过滤器判断不存在的直接返回
+        if (!blogBloomFilter.mightContain(id)) {
+            return Result.fail("博客不存在！");
+        }
         Blog blog = getById(id);
         if (blog == null) {
             return Result.fail("博客不存在！");
@@ -62,6 +84,35 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         return Result.ok(blog);
     }
 
+    // 非阻塞地查询博客：博客和点赞状态同时查询，博客查到以后再查作者，不占用 Tomcat 线程
+    @Override
+    public CompletableFuture<Result> queryBlogByIdAsync(Integer id) {
+        // 布隆过滤器判断不存在的直接返回
+        if (!blogBloomFilter.mightContain(id)) {
+            return CompletableFuture.completedFuture(Result.fail("博客不存在！"));
+        }
+        // UserHolder 是 ThreadLocal，回调在其他线程执行，先在当前线程取出用户
+        UserDTO user = UserHolder.getUser();
+        String userId = user == null ? "-1" : user.getId().toString();
+        CompletableFuture<Blog> blogFuture = asyncCacheClient.supplyAsync(() -> getById(id));
+        CompletableFuture<Double> likedFuture = asyncCacheClient.zScore(RedisConstants.BLOG_LIKED + id, userId);
+        CompletableFuture<UserDTO> authorFuture = blogFuture.thenCompose(blog -> blog == null
+                ? CompletableFuture.<UserDTO>completedFuture(null) : userService.queryUserDTOAsync(blog.getUserId()));
+        return CompletableFuture.allOf(blogFuture, likedFuture, authorFuture).thenApply(v -> {
+            Blog blog = blogFuture.join();
+            if (blog == null) {
+                return Result.fail("博客不存在！");
+            }
+            UserDTO author = authorFuture.join();
+            if (author != null) {
+                blog.setName(author.getNickName());
+                blog.setIcon(author.getIcon());
+            }
+            blog.setIsLike(likedFuture.join() != null);
+            return Result.ok(blog);
+        });
+    }
+
 
     // 首页热点博客
     @Override
@@ -72,11 +123,9 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
                 .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
-        // 查询用户
-        records.forEach(blog -> {
-            this.isBlogLiked(blog);
-            this.queryBlogUser(blog);
-        });
+        // 批量查询用户和点赞状态
+        queryBlogUsers(records);
+        isBlogsLiked(records);
         return Result.ok(records);
     }
 
@@ -104,6 +153,9 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
                 redisTemplate.opsForZSet().remove(key, userId.toString());
             }
         }
+        // 点赞排行变了，删除各个节点上的热点副本
+        localCache.invalidate(key);
+        redisTemplate.convertAndSend(RedisConstants.CACHE_INVALIDATE_CHANNEL, key);
         return Result.ok();
     }
 
@@ -117,22 +169,23 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     public Result queryBlogLikes(Long id) {
         // 查询的key
         String key = RedisConstants.BLOG_LIKED + id;
-        // 获取前五个元素
-        Set<String> range = redisTemplate.opsForZSet().range(key, 0, 5);
+        // 热门博客的排行榜优先读本地副本
+        hotKeyDetector.record(key);
+        @SuppressWarnings("unchecked")
+        List<Long> ids = (List<Long>) localCache.get(key);
+        if (ids == null) {
+            // 获取前五个元素
+            Set<String> range = redisTemplate.opsForZSet().range(key, 0, 5);
+            // 从set转为list
+            ids = range == null ? new ArrayList<>() : range.stream().map(Long::valueOf).collect(Collectors.toList());
+            localCache.put(key, ids);
+        }
         // 特殊情况
-        if (range == null || range.isEmpty()) {
+        if (ids.isEmpty()) {
             return Result.ok(Collectors.toList());
         }
-        // 从set转为list
-        List<Long> ids = range.stream().map(Long::valueOf).collect(Collectors.toList());
-        // 拼接一下为了下面一句的设置条件
-        String joinId = StrUtil.join(",", ids);
-        // 从数据库中查询数据，并且转为想要的数据
-        List<UserDTO> userDTOS = userService.query()
-                .in("id", ids).last("ORDER BY FIELD(id," + joinId + ")").list()
-                .stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
-                .collect(Collectors.toList());
+        // 批量查询用户，返回结果的顺序和 ids 一致
+        List<UserDTO> userDTOS = new ArrayList<>(userService.queryUserDTOByIds(ids).values());
         // 返回结果
         return Result.ok(userDTOS);
     }
@@ -148,6 +201,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         if (!isSuccess) {
             return Result.fail("新增笔记失败！");
         }
+        blogBloomFilter.add(blog.getId());
         // 获取当前用户的所有粉丝
         List<Follow> follows = followService.query().eq("follow_user_id", user.getId()).list();
         follows.forEach(follow -> {
@@ -198,13 +252,9 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         // 查询所有博客
         List<Blog> blogs = query().in("id", ids)
                 .last("ORDER BY FIELD(id," + idStr + ")").list();
-        // 对博客进行完整的设置
-        for (Blog blog : blogs) {
-            // 查询blog有关的用户
-            queryBlogUser(blog);
-            // 查看当前用户是否进行了点赞
-            isBlogLiked(blog);
-        }
+        // 对博客进行完整的设置，批量查询blog有关的用户以及当前用户是否进行了点赞
+        queryBlogUsers(blogs);
+        isBlogsLiked(blogs);
         // 数据封装
         ScrollResult scrollResult = new ScrollResult();
         scrollResult.setList(blogs);
@@ -221,6 +271,37 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         blog.setIcon(user.getIcon());
     }
 
+    // 批量给博客的用户属性赋值，一次批量查询代替每个博客查一次
+    private void queryBlogUsers(List<Blog> blogs) {
+        List<Long> userIds = blogs.stream().map(Blog::getUserId).collect(Collectors.toList());
+        Map<Long, UserDTO> users = userService.queryUserDTOByIds(userIds);
+        for (Blog blog : blogs) {
+            UserDTO user = users.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+        }
+    }
+
+    // 批量查询点赞状态，所有的 ZSCORE 放在一个 pipeline 中
+    private void isBlogsLiked(List<Blog> blogs) {
+        UserDTO user = UserHolder.getUser();
+        String userId = user == null ? "-1" : user.getId().toString();
+        List<Object> scores = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Blog blog : blogs) {
+                hotKeyDetector.record(RedisConstants.BLOG_LIKED + blog.getId());
+                connection.zSetCommands().zScore(
+                        (RedisConstants.BLOG_LIKED + blog.getId()).getBytes(StandardCharsets.UTF_8),
+                        userId.getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+        for (int i = 0; i < blogs.size(); i++) {
+            blogs.get(i).setIsLike(scores.get(i) != null);
+        }
+    }
+
     private void isBlogLiked(Blog blog) {
         // 获取用户
         Long userId ;
@@ -232,6 +313,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             userId = -1L;
         }
         String key = RedisConstants.BLOG_LIKED + blog.getId();
+        hotKeyDetector.record(key);
         // 查看用户是否已经点赞
         Double score = redisTemplate.opsForZSet().score(key, userId.toString());
         // 设置点赞状态
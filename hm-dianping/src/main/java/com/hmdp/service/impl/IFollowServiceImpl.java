@@ -19,6 +19,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
@@ -96,7 +97,8 @@ public class IFollowServiceImpl extends ServiceImpl<FollowMapper, Follow> implem
         // 先将 string 类型 转为 long 类型
         List<Long> ids = intersect.stream().map(Long::valueOf).collect(Collectors.toList());
         // 从ids中查询所有的用户
-        List<UserDTO> users = userService.listByIds(ids).stream().map(user -> BeanUtil.copyProperties(user, UserDTO.class)).collect(Collectors.toList());
+        // 批量查询，走缓存
+        List<UserDTO> users = new ArrayList<>(userService.queryUserDTOByIds(ids).values());
         return Result.ok(users);
     }
 }
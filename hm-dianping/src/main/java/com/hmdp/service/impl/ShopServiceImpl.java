@@ -1,9 +1,5 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
@@ -11,11 +7,13 @@ import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.HashCacheClient;
+import com.hmdp.utils.RedisBloomFilter;
 import com.hmdp.utils.RedisConstants;
-import com.hmdp.utils.RedisData;
 import com.hmdp.utils.SystemConstants;
 import org.apache.ibatis.executor.ResultExtractor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.geo.Distance;
 import org.springframework.data.geo.GeoResult;
 import org.springframework.data.geo.GeoResults;
@@ -25,11 +23,12 @@ import org.springframework.data.redis.domain.geo.GeoReference;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.time.LocalDateTime;
+import javax.annotation.Resource;
+
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -46,67 +45,64 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Autowired
     private CacheClient cacheClient;
 
+    @Autowired
+    private HashCacheClient hashCacheClient;
+
+    @Resource
+    private RedisBloomFilter shopBloomFilter;
+
+    // 店铺缓存的形式：string（整个对象编码为一个值）、hash（每个字段一个 field）
+    @Value("${hmdp.cache.shop-mode:string}")
+    private String shopCacheMode;
+
+    @Override
+    public boolean save(Shop shop) {
+        boolean success = super.save(shop);
+        // 新增的店铺加入布隆过滤器
+        if (success) {
+            shopBloomFilter.add(shop.getId());
+        }
+        return success;
+    }
+
     @Override
     public Result queryById(Long id) {
         // 缓存穿透的版本
         // Shop shop = queryWithPassThrough(id);
         // 缓存击穿的版本
-        Shop shop = queryWithMutex(id);
+//        Shop shop = queryWithMutex(id);
         // 逻辑过期的版本
 //        Shop shop = queryWithLogicExpire(id);
-        // 调用封装好的函数
+        // 逻辑过期 + 提前刷新的版本
 //        Shop shop = cacheClient
-//                .queryWithLogicalExpire(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+//                .queryWithEarlyRefresh(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        // 软过期 + 硬过期的版本
+//        Shop shop = cacheClient.queryWithSoftExpire(
+//                CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, CACHE_SHOP_HARD_TTL, TimeUnit.MINUTES);
+        Shop shop;
+        if ("hash".equals(shopCacheMode)) {
+            // Hash 的版本
+            shop = hashCacheClient.query(CACHE_SHOP_HASH_KEY, id, Shop.class, this::loadForHash,
+                    CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        } else {
+            // 调用封装好的函数，带本地缓存
+            shop = cacheClient
+                    .queryWithMutex(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        }
         if (shop == null) {
             return Result.fail("店铺不存在！");
         }
         return Result.ok(shop);
     }
 
-    //线程池
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
-
     // 逻辑过期的版本
     public Shop queryWithLogicExpire(Long id) {
-        // 1.从 redis 中查询缓存
-        String shopJson = redisTemplate.opsForValue().get(CACHE_SHOP_KEY + id);
-        // 2.判断是否存在
+        Shop shop = cacheClient.queryWithLogicalExpire(
+                CACHE_SHOP_KEY, id, Shop.class, this::getById, LOCK_SHOP_TTL, TimeUnit.SECONDS);
         // 空的情况只有第一次访问时会为空 此时需要添加数据
-        if (StrUtil.isBlank(shopJson)) {
-            // 3.不存在添加数据后直接返回
+        if (shop == null) {
             return saveShop2Redis(id, LOCK_SHOP_TTL);
         }
-        // 4.命中，需要先把 json 反序列化为对象
-        RedisData redisData = JSONUtil.toBean(shopJson, RedisData.class);
-        Shop shop = JSONUtil.toBean((JSONObject) redisData.getData(), Shop.class);
-        LocalDateTime expireTime = redisData.getExpireTime();
-        // 5.判断是否过期
-        if (expireTime.isAfter(LocalDateTime.now())) {
-            //5.1未过期，直接返回店铺信息
-            return shop;
-        }
-        // 5.2 已过期，需要缓存重建
-        // 6.缓存重建
-        // 6.1获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        boolean isLock = tryLock(lockKey);
-        // 6.2判断是否获取锁成功
-        if (isLock) {
-            // 6.3 成功开启独立线程，实现缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    // 重建缓存
-                    this.saveShop2Redis(id, LOCK_SHOP_TTL);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                } finally {
-                    // 释放锁
-                    unLock(lockKey);
-                }
-            });
-        }
-
-
         return shop;
     }
 
@@ -114,103 +110,20 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     private Shop saveShop2Redis(Long id, long expireSeconds) {
         // 1.查询店铺数据
         Shop shop = getById(id);
-        // 2.封装逻辑过期时间
-        RedisData redisData = new RedisData();
-        redisData.setData(shop);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(expireSeconds));
-        // 3.写入 Redis
-        redisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, JSONUtil.toJsonStr(redisData));
+        // 2.写入 Redis，编码格式由 CacheClient 决定
+        cacheClient.setWithLogicalExpire(CACHE_SHOP_KEY + id, shop, expireSeconds, TimeUnit.SECONDS);
         return shop;
-
     }
 
     // 缓存击穿的版本
+    // 原来获取锁失败以后休眠 50ms 再递归重试，热点 key 过期时会挂起大量线程，现在交给 CacheClient 合并请求
     public Shop queryWithMutex(Long id) {
-        // 1.从 redis 中查询缓存
-        String shopJson = redisTemplate.opsForValue().get(CACHE_SHOP_KEY + id);
-        // 2.判断是否存在
-        if (StrUtil.isNotBlank(shopJson)) {
-            // 3.存在直接返回
-            return JSONUtil.toBean(shopJson, Shop.class);
-        }
-        // 为了解决缓存穿透 下面存入的是 "" isNotBlank 判断其为空
-        if (shopJson != null) {
-            return null;
-        }
-        // 4.实现缓存重建
-        // 4.1 获取互斥锁
-        String lockKey = "lock:shop" + id;
-        Shop shop = null;
-        try {
-            boolean isLock = tryLock(lockKey);
-            // 4.2判断获取锁是否成功
-            if (!isLock) {
-                Thread.sleep(50);
-                return queryWithMutex(id);
-            }
-            // 4.3失败，休眠重试
-            // 4.4成功根据 id 查询数据库
-            shop = getById(id);
-            // 5.不存在，返回错误
-            if (shop == null) {
-                // 为了解决缓存穿透，当前 id 不存在数据，就先存入一个空值，防止大量的查询给服务器造成压力
-                redisTemplate.opsForValue()
-                        .set(CACHE_SHOP_KEY + id, "", CACHE_SHOP_TTL, TimeUnit.MINUTES);
-                return null;
-            }
-            // 6.存在，写入redis
-            redisTemplate.opsForValue()
-                    .set(CACHE_SHOP_KEY + id, JSONUtil.toJsonStr(shop), CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        } finally {
-            unLock(lockKey);
-        }
-        // 7.释放锁
-        // 7.返回数据
-        return shop;
+        return cacheClient.queryWithMutex(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
     }
 
-    // 获取锁
-    private boolean tryLock(String key) {
-        Boolean flag = redisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
-        // 不直接返回 flag 是防止拆箱造成空指针的情况
-        return BooleanUtil.isTrue(flag);
-    }
-
-    // 释放锁
-    private void unLock(String key) {
-        redisTemplate.delete(key);
-    }
-
-
     // 缓存穿透的版本
     public Shop queryWithPassThrough(Long id) {
-        // 1.从 redis 中查询缓存
-        String shopJson = redisTemplate.opsForValue().get(CACHE_SHOP_KEY + id);
-        // 2.判断是否存在
-        if (StrUtil.isNotBlank(shopJson)) {
-            // 3.存在直接返回
-            return JSONUtil.toBean(shopJson, Shop.class);
-        }
-        // 为了解决缓存穿透 下面存入的是 "" isNotBlank 判断其为空
-        if (shopJson != null) {
-            return null;
-        }
-        // 4.不存在，根据id 查询数据库
-        Shop shop = getById(id);
-        // 5.不存在，返回错误
-        if (shop == null) {
-            // 为了解决缓存穿透，当前 id 不存在数据，就先存入一个空值，防止大量的查询给服务器造成压力
-            redisTemplate.opsForValue()
-                    .set(CACHE_SHOP_KEY + id, "", CACHE_SHOP_TTL, TimeUnit.MINUTES);
-            return null;
-        }
-        // 6.存在，写入redis
-        redisTemplate.opsForValue()
-                .set(CACHE_SHOP_KEY + id, JSONUtil.toJsonStr(shop), CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        // 7.返回数据
-        return shop;
+        return cacheClient.queryWithPassThrough(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
     }
 
 
@@ -223,11 +136,33 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             return Result.fail("店铺不存在！");
         }
         updateById(shop);
-        // 删除缓存
-        redisTemplate.delete(CACHE_SHOP_KEY + id);
+        // 删除缓存，同时通知所有节点删除本地缓存
+        cacheClient.delete(CACHE_SHOP_KEY + id);
+        // Hash 形式的缓存只写入这次修改的字段，不需要删除
+        hashCacheClient.updateFields(CACHE_SHOP_HASH_KEY + id, shop);
         return Result.ok();
     }
 
+    /**
+     * 列表页使用的店铺摘要，只读取需要的字段
+     * @param ids 店铺 id
+     * @return 按照 ids 顺序排列的店铺，只有 id、名称、图片、均价、评分、销量、评论数
+     */
+    @Override
+    public List<Shop> queryShopSummaries(Collection<Long> ids) {
+        Map<Long, Shop> shops = hashCacheClient.queryFields(CACHE_SHOP_HASH_KEY, ids, Shop.class,
+                missingIds -> listByIds(missingIds).stream().collect(Collectors.toMap(Shop::getId, Function.identity())),
+                CACHE_SHOP_TTL, TimeUnit.MINUTES,
+                "id", "name", "images", "avgPrice", "score", "sold", "comments");
+        return new ArrayList<>(shops.values());
+    }
+
+    // 切换到 Hash 以后，先从字符串形式的缓存中迁移，没有再查询数据库
+    private Shop loadForHash(Long id) {
+        Shop shop = cacheClient.get(CACHE_SHOP_KEY + id, Shop.class);
+        return shop != null ? shop : getById(id);
+    }
+
     @Override
     public Result queryShopByType(Integer typeId, Integer current, Double x, Double y) {
         // 1.是否需要根据坐标查询
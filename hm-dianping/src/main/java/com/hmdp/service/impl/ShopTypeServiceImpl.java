@@ -1,20 +1,14 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.core.convert.Convert;
-import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.CacheClient;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
-import javax.annotation.Resource;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import static com.hmdp.utils.RedisConstants.CACHE_SHOPTYPE_KEY;
@@ -32,23 +26,16 @@ import static com.hmdp.utils.RedisConstants.CACHE_SHOPTYPE_TTL;
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
     @Autowired
-    private StringRedisTemplate redisTemplate;
+    private CacheClient cacheClient;
 
     @Override
     public Result queryTypeLisi() {
 //        List<ShopType> typeList = typeService
 //                .query().orderByAsc("sort").list();
-        // 获取数据
-        String jsonCache = redisTemplate.opsForValue().get(CACHE_SHOPTYPE_KEY);
-        List<ShopType> shopTypes = JSONUtil.toList(jsonCache, ShopType.class);
-        // 如果缓存不为空直接返回数据
-        if (!shopTypes.isEmpty()) {
-            return Result.ok(shopTypes);
-        }
-        // 缓存不存在的情况进行查询数据库
-        shopTypes = query().orderByAsc("sort").list();
-        // 存入缓存,并设置缓存时间
-        redisTemplate.opsForValue().set(CACHE_SHOPTYPE_KEY, JSONUtil.toJsonStr(shopTypes),CACHE_SHOPTYPE_TTL, TimeUnit.MINUTES);
+        // 整个列表缓存在一个 key 中，id 为空字符串，以数组的形式编码，超过阈值时自动压缩
+        ShopType[] shopTypes = cacheClient.queryWithPassThrough(CACHE_SHOPTYPE_KEY, "", ShopType[].class,
+                id -> query().orderByAsc("sort").list().toArray(new ShopType[0]),
+                CACHE_SHOPTYPE_TTL, TimeUnit.MINUTES);
         return Result.ok(shopTypes);
     }
 }
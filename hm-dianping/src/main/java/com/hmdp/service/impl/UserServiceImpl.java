@@ -12,6 +12,9 @@ import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.AsyncCacheClient;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.RedisBloomFilter;
 import com.hmdp.utils.RegexUtils;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
@@ -25,10 +28,14 @@ import javax.servlet.http.HttpSession;
 
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 import static com.hmdp.utils.SystemConstants.USER_NICK_NAME_PREFIX;
@@ -48,6 +55,15 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     @Autowired
     private StringRedisTemplate redisTemplate;
 
+    @Resource
+    private RedisBloomFilter userBloomFilter;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private AsyncCacheClient asyncCacheClient;
+
 
     @Override
     public Result sedCode(String phone, HttpSession session) {
@@ -181,6 +197,29 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     }
 
 
+    /**
+     * 批量查询用户的基本信息，走缓存，列表页面使用
+     * @param ids 用户id
+     * @return 用户id -> 用户信息，按照 ids 的顺序
+     */
+    @Override
+    public Map<Long, UserDTO> queryUserDTOByIds(Collection<Long> ids) {
+        return cacheClient.queryBatch(CACHE_USER_KEY, ids, UserDTO.class,
+                missingIds -> listByIds(missingIds).stream()
+                        .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
+                        .collect(Collectors.toMap(UserDTO::getId, Function.identity())),
+                CACHE_USER_TTL, TimeUnit.MINUTES);
+    }
+
+    // 非阻塞地查询单个用户，和 queryUserDTOByIds 共用同一份缓存
+    @Override
+    public CompletableFuture<UserDTO> queryUserDTOAsync(Long id) {
+        return asyncCacheClient.queryWithPassThrough(CACHE_USER_KEY, id, UserDTO.class, userId -> {
+            User user = getById(userId);
+            return user == null ? null : BeanUtil.copyProperties(user, UserDTO.class);
+        }, CACHE_USER_TTL, TimeUnit.MINUTES);
+    }
+
     private User createUserWithPhone(String phone) {
         // 1.创建用户
         User user = new User();
@@ -188,6 +227,8 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         user.setNickName(USER_NICK_NAME_PREFIX + RandomUtil.randomString(10));
         // 2.保存用户
         save(user);
+        // 3.加入布隆过滤器
+        userBloomFilter.add(user.getId());
         return user;
     }
 }
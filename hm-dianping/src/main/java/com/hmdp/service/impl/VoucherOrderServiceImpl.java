@@ -1,6 +1,7 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.SeckillVoucher;
@@ -8,34 +9,58 @@ import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.RedisBloomFilter;
+import com.hmdp.utils.IdGenerator;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillMetrics;
+import com.hmdp.utils.SeckillStock;
+import com.hmdp.utils.SoldOutFlags;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
-import org.springframework.aop.framework.AopContext;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.NestedExceptionUtils;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
 import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_GROUP;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_LEGACY_STREAM;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM;
 
 /**
  * @author 54656 on 2022/11/17 17:58
  */
 @Slf4j
+@Service
 public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService {
 
     @Resource
@@ -44,7 +69,17 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Resource
     private StringRedisTemplate redisTemplate;
 
-    private RedisIdWorker redisIdWorker = new RedisIdWorker(redisTemplate);
+    @Resource
+    private IdGenerator idGenerator;
+
+    @Resource
+    private RedisBloomFilter voucherBloomFilter;
+
+    @Resource
+    private SoldOutFlags soldOutFlags;
+
+    @Resource
+    private SeckillStock seckillStock;
 
     private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
 
@@ -57,57 +92,236 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         SECKILL_SCRIPT.setResultType(Long.class);
     }
 
+    // 在脚本中分配订单 id 的版本，返回序列号，-1：库存不足，-2：重复下单
+    private static final DefaultRedisScript<Long> SECKILL_ID_SCRIPT;
+
+    static {
+        SECKILL_ID_SCRIPT = new DefaultRedisScript<>();
+        // 这个是基于阻塞队列的 lua 脚本
+//        SECKILL_ID_SCRIPT.setLocation(new ClassPathResource("seckillId.lua"));
+        // 这个是基于 stream 的lua脚本
+        SECKILL_ID_SCRIPT.setLocation(new ClassPathResource("seckillStreamId.lua"));
+        SECKILL_ID_SCRIPT.setResultType(Long.class);
+    }
+
+    // 分片库存使用的脚本：所属分片上判断并扣减，其他分片上只扣减
+    private static final DefaultRedisScript<Long> SECKILL_SHARD_SCRIPT;
+    private static final DefaultRedisScript<Long> SECKILL_SHARD_TAKE_SCRIPT;
+
+    static {
+        SECKILL_SHARD_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SHARD_SCRIPT.setLocation(new ClassPathResource("seckillShard.lua"));
+        SECKILL_SHARD_SCRIPT.setResultType(Long.class);
+        SECKILL_SHARD_TAKE_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SHARD_TAKE_SCRIPT.setLocation(new ClassPathResource("seckillShardTake.lua"));
+        SECKILL_SHARD_TAKE_SCRIPT.setResultType(Long.class);
+    }
+
+
+    // 旧 stream 的 pending-list 中空闲超过这个时间的订单才转给自己处理，滚动发布期间不抢还在运行的旧版本节点的订单
+    private static final Duration LEGACY_CLAIM_IDLE = Duration.ofSeconds(30);
+
+    // 旧 stream 超过这个时间没有写入新订单，说明旧版本的节点都已经下线
+    private static final Duration LEGACY_QUIET = Duration.ofMinutes(5);
+
+    // 消费者的个数，也是订单 stream 的分区数
+    @Value("${hmdp.seckill.consumers:4}")
+    private int consumers;
+
+    // 消费者名称的前缀，默认使用主机名，重启以后名称不变，可以继续处理自己 pending-list 中的订单
+    @Value("${hmdp.seckill.consumer-name:}")
+    private String consumerName;
+
+    // 每批最多处理的订单数，为 1 时逐条处理
+    @Value("${hmdp.seckill.batch-size:100}")
+    private int batchSize;
 
-    // 开启一个单独的线程
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    // 读到第一条订单以后，最多再等待多久凑满一批
+    @Value("${hmdp.seckill.batch-wait-millis:50}")
+    private long batchWaitMillis;
+
+    @Resource
+    private SeckillMetrics seckillMetrics;
+
+    private ExecutorService seckillOrderExecutor;
+
+    private volatile boolean running = true;
+
+    private final AtomicInteger runningConsumers = new AtomicInteger();
+
+    // 消费订单时一人一单的保证方式：lock（Redisson 锁 + 先查询），unique-key（数据库唯一索引 uk_user_voucher）
+    @Value("${hmdp.seckill.order-dedup:lock}")
+    private String orderDedup;
+
+    // 使用 RedisIdWorker 时在秒杀脚本中分配订单 id，下单只需要访问一次 Redis
+    @Value("${hmdp.seckill.id-in-script:true}")
+    private boolean idInScript;
 
     // 此注解是在当前类被springboot启动以后 直接执行的方法
     @PostConstruct
-    private void init() {
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+    private void init() throws UnknownHostException {
+        preloadScripts();
+        if (StrUtil.isBlank(consumerName)) {
+            consumerName = InetAddress.getLocalHost().getHostName();
+        }
+        seckillMetrics.gaugeConsumers(runningConsumers);
+        // 每个分区一个消费者线程，同一个用户的订单始终在同一个分区，由同一个线程按顺序处理；
+        // 多个实例时每个实例都在每个分区的 g1 组中消费，同一个分区的订单会分给不同实例的消费者，
+        // 同一个用户的订单只在单实例部署时保证按顺序处理，一人一单仍然由 order-dedup 保证
+        AtomicInteger index = new AtomicInteger();
+        // 多一个线程处理分区之前的旧 stream，处理完以后结束
+        seckillOrderExecutor = Executors.newFixedThreadPool(consumers + 1, r -> {
+            Thread thread = new Thread(r, "seckill-order-" + index.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int partition = 0; partition < consumers; partition++) {
+            seckillOrderExecutor.submit(new VoucherOrderHandler(partition));
+        }
+        seckillOrderExecutor.submit(new LegacyOrderHandler());
+    }
+
+    /**
+     * 启动时 SCRIPT LOAD 所有的秒杀脚本，请求中只需要发送 EVALSHA 和 sha1；
+     * RedisTemplate.execute 执行脚本时使用 EVALSHA，Redis 重启或者切换以后返回 NOSCRIPT 时会自动改用 EVAL 重新加载
+     */
+    private void preloadScripts() {
+        List<DefaultRedisScript<Long>> scripts = Arrays.asList(
+                SECKILL_SCRIPT, SECKILL_ID_SCRIPT, SECKILL_SHARD_SCRIPT, SECKILL_SHARD_TAKE_SCRIPT);
+        try {
+            redisTemplate.execute((RedisCallback<Object>) connection -> {
+                for (DefaultRedisScript<Long> script : scripts) {
+                    connection.scriptingCommands().scriptLoad(script.getScriptAsString().getBytes(StandardCharsets.UTF_8));
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            // 加载失败不影响启动，第一次执行时会通过 EVAL 加载
+            log.warn("预加载秒杀脚本失败", e);
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        running = false;
+        seckillOrderExecutor.shutdown();
+    }
+
+    // 根据用户 id 选择分区
+    private String orderStreamOf(Long userId) {
+        return SECKILL_ORDER_STREAM + Math.floorMod(userId.hashCode(), consumers);
     }
 
     private class VoucherOrderHandler implements Runnable {
-        String queueName ="stream.orders" ;
+        final String partition;
+        final String queueName;
+        final Consumer consumer;
+        private final AtomicLong lagMillis = new AtomicLong();
+
+        VoucherOrderHandler(int partition) {
+            this(String.valueOf(partition), SECKILL_ORDER_STREAM + partition, consumerName + "-c" + partition);
+        }
+
+        VoucherOrderHandler(String partition, String queueName, String name) {
+            this.partition = partition;
+            this.queueName = queueName;
+            this.consumer = Consumer.from(SECKILL_ORDER_GROUP, name);
+            seckillMetrics.gaugeLag(consumer.getName(), this.partition, lagMillis);
+            seckillMetrics.gaugePending(consumer.getName(), this.partition, this::pendingCount);
+        }
 
         @Override
         public void run() {
-            // 此处虽然是一个死循环，不过不用很担心对 cpu 造成较大的负担，当阻塞线程内没东西时，他会卡在这里
-            while (true) {
-                try {
-                    // 1.获取消息队列中的订单信息，XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS streams.order >
-                    List<MapRecord<String, Object, Object>> list = redisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-                            StreamOffset.create(queueName, ReadOffset.lastConsumed())
-                    );
-                    // 2.判断消息获取是否成功
-                    if (list == null || list.isEmpty()) {
-                        // 如果获取失败，说明没有消息，进行下一次循环
-                        continue;
+            runningConsumers.incrementAndGet();
+            try {
+                createGroup();
+                // 先处理上次没有 ACK 的订单
+                handlePendingList();
+                // 此处虽然是一个死循环，不过不用很担心对 cpu 造成较大的负担，当阻塞线程内没东西时，他会卡在这里
+                while (running) {
+                    try {
+                        // 1.获取消息队列中的订单信息，XREADGROUP GROUP g1 host-c0 COUNT N BLOCK 2000 STREAMS stream.orders:0 >
+                        List<MapRecord<String, Object, Object>> list = readBatch();
+                        // 2.判断消息获取是否成功
+                        if (list.isEmpty()) {
+                            // 如果获取失败，说明没有消息，进行下一次循环
+                            lagMillis.set(0);
+                            continue;
+                        }
+                        // 3.解析消息中的订单消息，处理并确认
+                        if (batchSize > 1) {
+                            handleBatch(list);
+                        } else {
+                            handleRecord(list.get(0));
+                        }
+                    } catch (Exception e) {
+                        // 出现了异常说明ack确认失败，我们要去pending-list中取出区重试
+                        log.error("处理订单异常，分区 {}", partition, e);
+                        seckillMetrics.processed(partition, false, 1);
+                        handlePendingList();
                     }
-                    // 3.解析消息中的订单消息
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> values = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
-                    // 4.如果获取成功，可以下单
-                    handleVoucherOrder(voucherOrder);
-                    // 5.ACK确认 SACK stream.order g1 id
-                    redisTemplate.opsForStream().acknowledge(queueName, "g1", record.getId());
-                } catch (Exception e) {
-                    // 出现了异常说明ack确认失败，我们要去pending-list中取出区重试
-                    log.error("处理订单异常", e);
-                    handlePendingList();
                 }
+            } finally {
+                runningConsumers.decrementAndGet();
             }
         }
 
-        private void handlePendingList() {
-            while (true) {
+        /**
+         * 读取一批订单：第一条最多等待 2 秒，读到以后最多再等待 batchWaitMillis 凑满 batchSize 条
+         */
+        List<MapRecord<String, Object, Object>> readBatch() {
+            List<MapRecord<String, Object, Object>> batch = new ArrayList<>(batchSize);
+            long deadline = 0;
+            while (batch.size() < batchSize) {
+                Duration block = Duration.ofSeconds(2);
+                if (!batch.isEmpty()) {
+                    // BLOCK 0 表示一直等待，所以剩余时间用完时直接结束
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    block = Duration.ofMillis(remaining);
+                }
+                List<MapRecord<String, Object, Object>> list = redisTemplate.opsForStream().read(
+                        consumer,
+                        StreamReadOptions.empty().count(batchSize - batch.size()).block(block),
+                        StreamOffset.create(queueName, ReadOffset.lastConsumed())
+                );
+                if (list == null || list.isEmpty()) {
+                    break;
+                }
+                if (batch.isEmpty()) {
+                    deadline = System.currentTimeMillis() + batchWaitMillis;
+                }
+                batch.addAll(list);
+            }
+            return batch;
+        }
+
+        // 出现异常时整批都不会 ACK，之后由 handlePendingList 逐条重试，一条有问题的订单不会影响同一批的其他订单
+        void handleBatch(List<MapRecord<String, Object, Object>> list) {
+            // 1.解析消息中的订单消息
+            List<VoucherOrder> voucherOrders = new ArrayList<>(list.size());
+            RecordId[] ids = new RecordId[list.size()];
+            for (int i = 0; i < list.size(); i++) {
+                voucherOrders.add(toVoucherOrder(list.get(i).getValue()));
+                ids[i] = list.get(i).getId();
+            }
+            // 2.在一个事务中批量下单
+            proxy.createVoucherOrders(voucherOrders);
+            // 3.整批 ACK，XACK stream.orders:0 g1 id1 id2 ...
+            redisTemplate.opsForStream().acknowledge(queueName, SECKILL_ORDER_GROUP, ids);
+            // 4.以这一批中最早的订单计算延迟
+            lagMillis.set(Math.max(0, System.currentTimeMillis() - ids[0].getTimestamp()));
+            seckillMetrics.processed(partition, true, list.size());
+        }
+
+        void handlePendingList() {
+            while (running) {
                 try {
-                    // 1.获取 pending-list 中的订单信息，XREADGROUP GROUP g1 c1 COUNT 1 STREAMS streams.order 0
+                    // 1.获取 pending-list 中的订单信息，XREADGROUP GROUP g1 host-c0 COUNT 1 STREAMS stream.orders:0 0
                     List<MapRecord<String, Object, Object>> list = redisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
+                            consumer,
                             StreamReadOptions.empty().count(1),
                             StreamOffset.create(queueName, ReadOffset.from("0"))
                     );
@@ -116,17 +330,12 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                         // 如果获取失败，说明 pending-list 没有消息，结束循环
                         break;
                     }
-                    // 3.解析消息中的订单消息
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> values = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
-                    // 4.如果获取成功，可以下单
-                    handleVoucherOrder(voucherOrder);
-                    // 5.ACK确认 SACK stream.order g1 id
-                    redisTemplate.opsForStream().acknowledge(queueName, "g1", record.getId());
+                    // 3.解析消息中的订单消息，处理并确认
+                    handleRecord(list.get(0));
                 } catch (Exception e) {
                     // 出现了异常说明ack确认失败，我们要去pending-list中取出区重试
-                    log.error("处理pending-list订单异常", e);
+                    log.error("处理pending-list订单异常，分区 {}", partition, e);
+                    seckillMetrics.processed(partition, false, 1);
                     try {
                         Thread.sleep(20);
                     } catch (InterruptedException ex) {
@@ -135,10 +344,117 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                 }
             }
         }
+
+        void handleRecord(MapRecord<String, Object, Object> record) {
+            // 1.解析消息中的订单消息
+            VoucherOrder voucherOrder = toVoucherOrder(record.getValue());
+            // 2.下单
+            handleVoucherOrder(voucherOrder);
+            // 3.ACK确认 XACK stream.orders:0 g1 id
+            redisTemplate.opsForStream().acknowledge(queueName, SECKILL_ORDER_GROUP, record.getId());
+            // 4.消息 id 的前半部分是写入时的毫秒时间戳
+            lagMillis.set(Math.max(0, System.currentTimeMillis() - record.getId().getTimestamp()));
+            seckillMetrics.processed(partition, true, 1);
+        }
+
+        // 创建消费者组，stream 不存在时一起创建，已经存在时 Redis 返回 BUSYGROUP，忽略即可
+        void createGroup() {
+            try {
+                redisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands().xGroupCreate(
+                        queueName.getBytes(StandardCharsets.UTF_8), SECKILL_ORDER_GROUP, ReadOffset.from("0"), true));
+            } catch (Exception e) {
+                if (!String.valueOf(NestedExceptionUtils.getMostSpecificCause(e).getMessage()).contains("BUSYGROUP")) {
+                    throw e;
+                }
+            }
+        }
+
+        private Number pendingCount() {
+            try {
+                PendingMessagesSummary summary = redisTemplate.opsForStream().pending(queueName, SECKILL_ORDER_GROUP);
+                Long count = summary == null ? null : summary.getPendingMessagesPerConsumer().get(consumer.getName());
+                return count == null ? 0 : count;
+            } catch (Exception e) {
+                return Double.NaN;
+            }
+        }
     }
 
 
     // 下面是阻塞队列使用的
+    /**
+     * 分区之前所有订单写入同一个 stream.orders，升级以后由这个线程处理完其中剩下的订单：
+     * 旧版本的消费者名称不同（c1），pending-list 中的订单先 XCLAIM 给自己，再和还没有读取的订单一起处理；
+     * 没有 pending 的订单、并且一段时间没有写入新订单（旧版本的节点都已经下线）以后结束，旧 stream 不存在时直接结束
+     */
+    private class LegacyOrderHandler extends VoucherOrderHandler {
+
+        LegacyOrderHandler() {
+            super("legacy", SECKILL_ORDER_LEGACY_STREAM, consumerName + "-legacy");
+        }
+
+        @Override
+        public void run() {
+            if (!Boolean.TRUE.equals(redisTemplate.hasKey(queueName))) {
+                return;
+            }
+            createGroup();
+            while (running) {
+                try {
+                    // 1.转移旧版本消费者没有 ACK 的订单，和自己上次没有 ACK 的一起处理
+                    claimIdlePending();
+                    handlePendingList();
+                    // 2.还没有被读取的订单
+                    List<MapRecord<String, Object, Object>> list = readBatch();
+                    if (!list.isEmpty()) {
+                        if (batchSize > 1) {
+                            handleBatch(list);
+                        } else {
+                            handleRecord(list.get(0));
+                        }
+                    } else if (drained()) {
+                        log.info("分区之前的订单 stream {} 已经处理完", queueName);
+                        return;
+                    }
+                } catch (Exception e) {
+                    log.error("处理分区之前的订单异常", e);
+                    seckillMetrics.processed(partition, false, 1);
+                    try {
+                        Thread.sleep(1000);
+                    } catch (InterruptedException ex) {
+                        throw new RuntimeException(ex);
+                    }
+                }
+            }
+        }
+
+        // XPENDING stream.orders g1 - + N，其他消费者空闲足够久的订单 XCLAIM 给自己
+        private void claimIdlePending() {
+            PendingMessages pending = redisTemplate.opsForStream()
+                    .pending(queueName, SECKILL_ORDER_GROUP, Range.unbounded(), batchSize);
+            List<RecordId> ids = pending.stream()
+                    .filter(message -> !consumer.getName().equals(message.getConsumerName()))
+                    .filter(message -> message.getElapsedTimeSinceLastDelivery().compareTo(LEGACY_CLAIM_IDLE) >= 0)
+                    .map(PendingMessage::getId)
+                    .collect(Collectors.toList());
+            if (ids.isEmpty()) {
+                return;
+            }
+            redisTemplate.execute((RedisCallback<List<RecordId>>) connection -> connection.streamCommands().xClaimJustId(
+                    queueName.getBytes(StandardCharsets.UTF_8), SECKILL_ORDER_GROUP, consumer.getName(),
+                    RedisStreamCommands.XClaimOptions.minIdle(LEGACY_CLAIM_IDLE).ids(ids)));
+        }
+
+        private boolean drained() {
+            PendingMessagesSummary summary = redisTemplate.opsForStream().pending(queueName, SECKILL_ORDER_GROUP);
+            if (summary != null && summary.getTotalPendingMessages() > 0) {
+                return false;
+            }
+            String lastId = redisTemplate.opsForStream().info(queueName).lastGeneratedId();
+            return System.currentTimeMillis() - RecordId.of(lastId).getTimestamp() >= LEGACY_QUIET.toMillis();
+        }
+    }
+
 /*    private BlockingQueue<VoucherOrder> orderTasks = new ArrayBlockingQueue<>(1024 * 1024);
     private class VoucherOrderHandler implements Runnable {
         @Override
@@ -160,33 +476,144 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     // 基于stream消息队列实现
     @Override
     public Result seckillVoucher(Long voucherId) {
+        // 不存在的优惠券直接返回
+        if (!voucherBloomFilter.mightContain(voucherId)) {
+            return Result.fail("优惠券不存在！");
+        }
+        // 已经售罄的直接返回，不访问 Redis
+        if (soldOutFlags.isSoldOut(voucherId)) {
+            return Result.fail("库存不足！");
+        }
         // 获取用户
         Long userId = UserHolder.getUser().getId();
+        // 1.执行 lua 脚本，库存分片的优惠券使用分片的脚本
+        int shards = seckillStock.shardsOf(voucherId);
+        if (shards == 1 && idInScript && idGenerator instanceof RedisIdWorker) {
+            return seckillWithScriptId(voucherId, userId, (RedisIdWorker) idGenerator);
+        }
         // 生成订单id
-        long orderId = redisIdWorker.nextId("order");
-        // 1.执行 lua 脚本
-        // 执行此脚本以后应该去看
-        Long result = redisTemplate.execute(
-                SECKILL_SCRIPT,
-                Collections.emptyList(),
-                voucherId.toString(), userId.toString(), String.valueOf(orderId)
-        );
+        long orderId = idGenerator.nextId("order");
+        int r;
+        if (shards > 1) {
+            r = seckillShards(voucherId, userId, orderId, shards);
+        } else {
+            // 执行此脚本以后应该去看
+            Long result = redisTemplate.execute(
+                    SECKILL_SCRIPT,
+                    Collections.emptyList(),
+                    voucherId.toString(), userId.toString(), String.valueOf(orderId), orderStreamOf(userId)
+            );
+            assert result != null;
+            r = result.intValue();
+        }
 
         // 2.判断结果是否为0,即判断是否有购买资格
-        assert result != null;
-        int r = result.intValue();
         // 有购买资格才会返回订单好
         if (r != 0) {
-            // 不为零，代表没有购买资格
+            // 不为零，代表没有购买资格，库存不足时标记为售罄
+            if (r == 1) {
+                soldOutFlags.markSoldOut(voucherId);
+            }
             return Result.fail(r == 1 ? "库存不足！" : "不能重复下单！");
         }
-        // 实例化代理对象
-        proxy = (IVoucherOrderService) AopContext.currentProxy();
         return Result.ok(orderId);
     }
 
+    /**
+     * 由脚本分配订单 id 的序列号：一次 Redis 调用完成校验、扣减库存、生成订单 id 和发送消息，被拒绝的请求不消耗序列号
+     */
+    private Result seckillWithScriptId(Long voucherId, Long userId, RedisIdWorker redisIdWorker) {
+        LocalDateTime now = LocalDateTime.now();
+        long timestamp = RedisIdWorker.timestampOf(now);
+        Long result = redisTemplate.execute(
+                SECKILL_ID_SCRIPT,
+                Collections.emptyList(),
+                voucherId.toString(), userId.toString(), redisIdWorker.counterKey("order", now),
+                String.valueOf(timestamp), orderStreamOf(userId)
+        );
+        assert result != null;
+        if (result == -1) {
+            soldOutFlags.markSoldOut(voucherId);
+            return Result.fail("库存不足！");
+        }
+        if (result == -2) {
+            return Result.fail("不能重复下单！");
+        }
+        return Result.ok(RedisIdWorker.compose(timestamp, result));
+    }
+
+    // 解析消息中的订单，脚本分配 id 的消息中是时间戳和序列号
+    private static VoucherOrder toVoucherOrder(Map<Object, Object> values) {
+        VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
+        Object idTime = values.get("idTime");
+        if (voucherOrder.getId() == null && idTime != null) {
+            voucherOrder.setId(RedisIdWorker.compose(
+                    Long.parseLong(idTime.toString()), Long.parseLong(values.get("idSeq").toString())));
+        }
+        return voucherOrder;
+    }
+
+    /**
+     * 分片库存的下单：每个脚本只访问一个分片，在 Redis Cluster 中不会跨 slot
+     * 1.在用户所属的分片上判断一人一单、占住下单资格并扣减库存；
+     * 2.所属分片没有库存时，从随机位置开始依次尝试其他分片，跳过本节点已经知道扣完的分片；都没有库存时释放下单资格；
+     * 3.扣减成功以后再发送订单消息，发送失败时归还库存、释放资格
+     * 节点在扣减库存和发送消息之间宕机时，这个用户的资格和一个库存会被占住，只会少卖，不会超卖
+     * @return 和 lua 脚本一致，0：成功，1：库存不足，2：重复下单
+     */
+    private int seckillShards(Long voucherId, Long userId, long orderId, int shards) {
+        int home = seckillStock.homeShard(userId, shards);
+        String orderKey = seckillStock.orderKey(voucherId, home);
+        // 1.所属分片
+        Long result = redisTemplate.execute(SECKILL_SHARD_SCRIPT,
+                Arrays.asList(seckillStock.stockKey(voucherId, home), orderKey), userId.toString());
+        assert result != null;
+        if (result == 2) {
+            return 2;
+        }
+        int taken = result == 0 ? home : -1;
+        if (taken < 0) {
+            seckillStock.markDrained(voucherId, home);
+            // 2.其他分片
+            int start = ThreadLocalRandom.current().nextInt(shards - 1);
+            for (int i = 0; i < shards - 1 && taken < 0; i++) {
+                int shard = (home + 1 + (start + i) % (shards - 1)) % shards;
+                if (seckillStock.isDrained(voucherId, shard)) {
+                    continue;
+                }
+                result = redisTemplate.execute(SECKILL_SHARD_TAKE_SCRIPT,
+                        Collections.singletonList(seckillStock.stockKey(voucherId, shard)));
+                if (result != null && result == 0) {
+                    taken = shard;
+                } else {
+                    seckillStock.markDrained(voucherId, shard);
+                }
+            }
+        }
+        if (taken < 0) {
+            // 所有分片都没有库存，释放下单资格
+            redisTemplate.opsForSet().remove(orderKey, userId.toString());
+            return 1;
+        }
+        // 3.发送消息到队列中
+        Map<String, String> order = new HashMap<>(4);
+        order.put("userId", userId.toString());
+        order.put("voucherId", voucherId.toString());
+        order.put("id", String.valueOf(orderId));
+        try {
+            redisTemplate.opsForStream().add(StreamRecords.string(order).withStreamKey(orderStreamOf(userId)));
+        } catch (RuntimeException e) {
+            redisTemplate.opsForValue().increment(seckillStock.stockKey(voucherId, taken));
+            redisTemplate.opsForSet().remove(orderKey, userId.toString());
+            throw e;
+        }
+        return 0;
+    }
+
 
-    // 代理对象
+    // 代理对象，消费者线程中无法通过 AopContext 获取，启动后处理 pending-list 时也还没有请求进来过，所以直接注入
+    @Lazy
+    @Resource
     private IVoucherOrderService proxy;
     // 优化后的版本 阻塞队列
 //    @Override
@@ -209,7 +636,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 //        //  2.2为0，有购买资格，把下单信息保存阻塞队列
 //        VoucherOrder voucherOrder = new VoucherOrder();
 //        // 2.3订单id
-//        long orderId = redisIdWorker.nextId("order");
+//        long orderId = idGenerator.nextId("order");
 //        voucherOrder.setId(orderId);
 //        // 2.4用户id
 //        voucherOrder.setUserId(userId);
@@ -225,6 +652,11 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 
 
     private void handleVoucherOrder(VoucherOrder voucherOrder) {
+        // 0.由数据库的唯一索引保证一人一单时，不需要加锁
+        if (uniqueKeyDedup()) {
+            proxy.createVoucherOrderUnique(voucherOrder);
+            return;
+        }
         // 1.获取用户，此处不能够从 userHolder中去取了，因为这不是同一个线程
         Long userId = voucherOrder.getUserId();
         // 理论上此处不加锁也没有问题，为了保底
@@ -293,6 +725,67 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 //    }
 
 
+    /**
+     * 由唯一索引 uk_user_voucher(user_id, voucher_id) 保证一人一单：先插入订单，重复时数据库直接拒绝，
+     * 不需要分布式锁，也不需要先查询；重复的订单不会去扣减库存，不会占用优惠券这一行的锁
+     */
+    @Override
+    @Transactional
+    public void createVoucherOrderUnique(VoucherOrder voucherOrder) {
+        // 1.插入订单，同一个订单重复消费时主键重复，同一个用户再次下单时唯一索引重复
+        try {
+            save(voucherOrder);
+        } catch (DuplicateKeyException e) {
+            log.error("用户 {} 已经购买过一次优惠券 {}！", voucherOrder.getUserId(), voucherOrder.getVoucherId());
+            return;
+        }
+        // 2.扣减库存，失败时回滚刚插入的订单
+        boolean success = seckillVoucherService.update()
+                .setSql("stock = stock - 1")
+                .eq("voucher_id", voucherOrder.getVoucherId())
+                .gt("stock", 0)
+                .update();
+        if (!success) {
+            log.error("库存不足！");
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+        }
+    }
+
+    /**
+     * 唯一索引模式下的批量下单：每个优惠券一次 INSERT IGNORE，影响的行数就是新插入的订单数，再按照这个数扣减库存；
+     * 库存不够整批扣减时抛出异常回滚整批，这一批由 pending-list 逐条重试
+     */
+    private int createVoucherOrdersUnique(List<VoucherOrder> voucherOrders) {
+        Map<Long, List<VoucherOrder>> byVoucher = voucherOrders.stream().collect(
+                Collectors.groupingBy(VoucherOrder::getVoucherId, LinkedHashMap::new, Collectors.toList()));
+        int total = 0;
+        for (Map.Entry<Long, List<VoucherOrder>> entry : byVoucher.entrySet()) {
+            // 1.插入订单，重复的被忽略
+            int inserted = getBaseMapper().insertIgnoreBatch(entry.getValue());
+            if (inserted < entry.getValue().size()) {
+                log.error("优惠券 {} 有 {} 个重复的订单被忽略！", entry.getKey(), entry.getValue().size() - inserted);
+            }
+            if (inserted == 0) {
+                continue;
+            }
+            // 2.按照新插入的订单数扣减库存
+            boolean success = seckillVoucherService.update()
+                    .setSql("stock = stock - " + inserted)
+                    .eq("voucher_id", entry.getKey())
+                    .ge("stock", inserted)
+                    .update();
+            if (!success) {
+                throw new IllegalStateException("优惠券 " + entry.getKey() + " 库存不足，整批回滚后逐条处理");
+            }
+            total += inserted;
+        }
+        return total;
+    }
+
+    private boolean uniqueKeyDedup() {
+        return "unique-key".equals(orderDedup);
+    }
+
     // 这个是异步的用法
     @Override
     public void createVoucherOrderAsync(VoucherOrder voucherOrder) {
@@ -316,6 +809,68 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         save(voucherOrder);
     }
 
+    /**
+     * 批量下单，一批订单的往返次数是固定的：
+     * 一次 IN 查询判断重复下单，每个优惠券一次扣减库存，一次多行 INSERT
+     */
+    @Override
+    @Transactional
+    public int createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        if (uniqueKeyDedup()) {
+            return createVoucherOrdersUnique(voucherOrders);
+        }
+        // 1.同一批中的重复订单只保留第一个
+        Map<String, VoucherOrder> unique = new LinkedHashMap<>();
+        for (VoucherOrder voucherOrder : voucherOrders) {
+            unique.putIfAbsent(voucherOrder.getUserId() + ":" + voucherOrder.getVoucherId(), voucherOrder);
+        }
+        // 2.一次查询已经存在的订单，IN 条件会多查出一些组合，再按照用户和优惠券精确匹配
+        Set<Long> userIds = voucherOrders.stream().map(VoucherOrder::getUserId).collect(Collectors.toSet());
+        Set<Long> voucherIds = voucherOrders.stream().map(VoucherOrder::getVoucherId).collect(Collectors.toSet());
+        List<VoucherOrder> existing = query().select("user_id", "voucher_id")
+                .in("user_id", userIds).in("voucher_id", voucherIds).list();
+        for (VoucherOrder order : existing) {
+            if (unique.remove(order.getUserId() + ":" + order.getVoucherId()) != null) {
+                log.error("用户 {} 已经购买过一次优惠券 {}！", order.getUserId(), order.getVoucherId());
+            }
+        }
+        // 3.按照优惠券汇总，每个优惠券扣减一次库存
+        Map<Long, List<VoucherOrder>> byVoucher = unique.values().stream().collect(
+                Collectors.groupingBy(VoucherOrder::getVoucherId, LinkedHashMap::new, Collectors.toList()));
+        List<VoucherOrder> toSave = new ArrayList<>(unique.size());
+        byVoucher.forEach((voucherId, orders) -> toSave.addAll(deductStock(voucherId, orders)));
+        // 4.一条 INSERT 写入所有订单
+        if (!toSave.isEmpty()) {
+            getBaseMapper().insertBatch(toSave);
+        }
+        return toSave.size();
+    }
+
+    // 扣减库存，返回扣减成功的订单；库存不够整批扣减时按照下单顺序分配剩下的库存
+    private List<VoucherOrder> deductStock(Long voucherId, List<VoucherOrder> orders) {
+        int k = orders.size();
+        boolean success = seckillVoucherService.update()
+                .setSql("stock = stock - " + k)
+                .eq("voucher_id", voucherId)
+                .ge("stock", k)
+                .update();
+        if (success) {
+            return orders;
+        }
+        // 锁住这一行，读取剩余库存，再扣减剩下的全部
+        SeckillVoucher voucher = seckillVoucherService.query()
+                .eq("voucher_id", voucherId).last("for update").one();
+        int stock = voucher == null ? 0 : Math.min(voucher.getStock(), k);
+        if (stock > 0) {
+            seckillVoucherService.update()
+                    .setSql("stock = stock - " + stock)
+                    .eq("voucher_id", voucherId)
+                    .update();
+        }
+        log.error("优惠券 {} 库存不足，{} 个订单未创建！", voucherId, k - stock);
+        return orders.subList(0, stock);
+    }
+
     @Resource
     private RedissonClient redissonClient;
 
@@ -355,7 +910,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
             // 7.创建订单
             VoucherOrder voucherOrder = new VoucherOrder();
             // 7.1订单id,生成了订单号
-            long orderId = redisIdWorker.nextId("order");
+            long orderId = idGenerator.nextId("order");
             voucherOrder.setId(orderId);
             // 7.2用户id
             voucherOrder.setUserId(userId);
@@ -394,7 +949,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         // 7.创建订单
         VoucherOrder voucherOrder = new VoucherOrder();
         // 7.1订单id,生成了订单号
-        long orderId = redisIdWorker.nextId("order");
+        long orderId = idGenerator.nextId("order");
         voucherOrder.setId(orderId);
         // 7.2用户id
         voucherOrder.setUserId(userId);
@@ -7,16 +7,16 @@ import com.hmdp.entity.Voucher;
 import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.RedisBloomFilter;
+import com.hmdp.utils.SeckillStock;
+import com.hmdp.utils.SoldOutFlags;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
 import java.util.List;
 
-import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
-
 /**
  * <p>
  *  服务实现类
@@ -30,8 +30,22 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
 
     @Autowired
     private ISeckillVoucherService seckillVoucherService;
-    @Autowired
-    private StringRedisTemplate redisTemplate;
+    @Resource
+    private RedisBloomFilter voucherBloomFilter;
+    @Resource
+    private SoldOutFlags soldOutFlags;
+    @Resource
+    private SeckillStock seckillStock;
+
+    @Override
+    public boolean save(Voucher voucher) {
+        boolean success = super.save(voucher);
+        // 新增的优惠券加入布隆过滤器
+        if (success) {
+            voucherBloomFilter.add(voucher.getId());
+        }
+        return success;
+    }
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
@@ -53,7 +67,20 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
-        // 保存秒杀库存到Redis中
-        redisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        // 保存秒杀库存到Redis中，开启分片时拆分到多个 key
+        seckillStock.init(voucher.getId(), voucher.getStock());
+    }
+
+    @Override
+    @Transactional
+    public void updateSeckillStock(Long voucherId, Integer stock) {
+        // 1.修改数据库中的库存
+        seckillVoucherService.update().set("stock", stock).eq("voucher_id", voucherId).update();
+        // 2.修改Redis中的库存
+        seckillStock.set(voucherId, stock);
+        // 3.有库存以后清除所有节点的售罄标记
+        if (stock > 0) {
+            soldOutFlags.clear(voucherId);
+        }
     }
 }
@@ -0,0 +1,188 @@
+package com.hmdp.utils;
+
+import io.lettuce.core.SetArgs;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static com.hmdp.utils.CacheMetrics.ASYNC_PASS_THROUGH;
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
+
+/**
+ * 非阻塞版本的 CacheClient，返回 CompletableFuture，Controller 可以直接返回它，使用 Servlet 的异步响应
+ * Redis 使用 Lettuce 的异步命令，回调在 Lettuce 的 IO 线程上执行，只做解码这类很快的操作；
+ * 查询数据库放在单独的有界线程池中，队列满了直接失败，不会占用 IO 线程也不会无限堆积
+ * 缓存格式、本地缓存、布隆过滤器和 CacheClient 完全相同，两者可以混用
+ */
+@Slf4j
+@Component
+public class AsyncCacheClient {
+
+    private static final byte[] NULL_BYTES = new byte[0];
+
+    private final RedisAsyncCommands<String, byte[]> commands;
+
+    private final CacheClient cacheClient;
+
+    private final LocalCache localCache;
+
+    private final CacheCodecs cacheCodecs;
+
+    private final HotKeyDetector hotKeyDetector;
+
+    private final CacheMetrics cacheMetrics;
+
+    // 查询数据库的线程池
+    private final ThreadPoolExecutor dbExecutor;
+
+    // 合并同一个 key 的并发加载
+    private final ConcurrentMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    public AsyncCacheClient(StatefulRedisConnection<String, byte[]> asyncRedisConnection, CacheClient cacheClient,
+                            LocalCache localCache, CacheCodecs cacheCodecs, HotKeyDetector hotKeyDetector,
+                            CacheMetrics cacheMetrics,
+                            @Value("${hmdp.cache.async.db-threads:16}") int dbThreads,
+                            @Value("${hmdp.cache.async.queue-size:1000}") int queueSize) {
+        this.commands = asyncRedisConnection.async();
+        this.cacheClient = cacheClient;
+        this.localCache = localCache;
+        this.cacheCodecs = cacheCodecs;
+        this.hotKeyDetector = hotKeyDetector;
+        this.cacheMetrics = cacheMetrics;
+        AtomicInteger index = new AtomicInteger();
+        this.dbExecutor = new ThreadPoolExecutor(dbThreads, dbThreads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), r -> {
+                    Thread thread = new Thread(r, "cache-db-" + index.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    private void destroy() {
+        dbExecutor.shutdown();
+    }
+
+    /**
+     * 在查询数据库的线程池中执行，线程池满了返回失败的 future
+     */
+    public <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier) {
+        try {
+            return CompletableFuture.supplyAsync(supplier, dbExecutor);
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<T> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+
+    /**
+     * 查询有序集合中成员的分数，不存在时为 null，例如判断是否点赞
+     */
+    public CompletableFuture<Double> zScore(String key, String member) {
+        return commands.zscore(key, member.getBytes(StandardCharsets.UTF_8)).toCompletableFuture();
+    }
+
+    public <R, ID> CompletableFuture<R> queryWithPassThrough(
+            String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        // 布隆过滤器判断不存在，直接返回
+        if (!cacheClient.mightContain(keyPrefix, id)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        // 0.先查本地缓存
+        hotKeyDetector.record(key);
+        Object local = localCache.get(key);
+        if (local == LocalCache.NULL_VALUE) {
+            cacheMetrics.nullHit(keyPrefix, ASYNC_PASS_THROUGH, 1);
+            return CompletableFuture.completedFuture(null);
+        }
+        if (local != null) {
+            cacheMetrics.hit(keyPrefix, ASYNC_PASS_THROUGH, "local", 1);
+            return CompletableFuture.completedFuture(type.cast(local));
+        }
+        // 1.异步查询redis
+        return commands.get(key).toCompletableFuture().<R>thenCompose(bytes -> {
+            // 2.命中空值
+            if (bytes != null && bytes.length == 0) {
+                cacheMetrics.nullHit(keyPrefix, ASYNC_PASS_THROUGH, 1);
+                localCache.put(key, LocalCache.NULL_VALUE);
+                return CompletableFuture.completedFuture(null);
+            }
+            // 3.命中，写入本地缓存后返回
+            R cached = decode(key, bytes, type);
+            if (cached != null) {
+                cacheMetrics.hit(keyPrefix, ASYNC_PASS_THROUGH, "redis", 1);
+                localCache.put(key, cached);
+                return CompletableFuture.completedFuture(cached);
+            }
+            // 4.未命中，到线程池中查询数据库
+            cacheMetrics.miss(keyPrefix, ASYNC_PASS_THROUGH, 1);
+            return load(keyPrefix, id, dbFallback, time, unit);
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private <R, ID> CompletableFuture<R> load(
+            String keyPrefix, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            // 已经有请求在加载，共用它的结果
+            return (CompletableFuture<R>) (CompletableFuture<?>) existing;
+        }
+        long begin = System.nanoTime();
+        supplyAsync(() -> dbFallback.apply(id))
+                .<R>thenCompose(r -> {
+                    cacheMetrics.recordDbLoad(keyPrefix, ASYNC_PASS_THROUGH, System.nanoTime() - begin);
+                    // 5.不存在，写入空值
+                    if (r == null) {
+                        return commands.set(key, NULL_BYTES, SetArgs.Builder.px(
+                                cacheClient.jitterMillis(CACHE_NULL_TTL, TimeUnit.MINUTES)))
+                                .toCompletableFuture().thenApply(ok -> r);
+                    }
+                    // 6.存在，写入redis，通知所有节点删除本地缓存
+                    return commands.set(key, cacheCodecs.encode(key, r), SetArgs.Builder.px(
+                            cacheClient.jitterMillis(time, unit)))
+                            .toCompletableFuture().thenApply(ok -> {
+                                localCache.invalidate(key);
+                                commands.publish(CACHE_INVALIDATE_CHANNEL, key.getBytes(StandardCharsets.UTF_8));
+                                cacheMetrics.recordRebuild(keyPrefix, ASYNC_PASS_THROUGH, System.nanoTime() - begin);
+                                return r;
+                            });
+                })
+                .whenComplete((r, e) -> {
+                    inFlight.remove(key, future);
+                    if (e != null) {
+                        future.completeExceptionally(e);
+                    } else {
+                        future.complete(r);
+                    }
+                });
+        return (CompletableFuture<R>) (CompletableFuture<?>) future;
+    }
+
+    // 和 CacheClient 相同，不存在、空值、逻辑过期或者解码失败都返回 null
+    private <R> R decode(String key, byte[] bytes, Class<R> type) {
+        if (bytes == null || bytes.length == 0 || cacheCodecs.isLogicallyExpired(bytes)) {
+            return null;
+        }
+        try {
+            return cacheCodecs.decode(key, bytes, type);
+        } catch (RuntimeException e) {
+            log.warn("缓存 {} 解码失败", key, e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.hmdp.utils;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 紧凑的二进制编解码器，只适用于字段都是基本类型、String、LocalDateTime 的实体类，例如 Shop、UserDTO
+ * 格式：字段个数（short），然后按照字段名排序，每个字段依次写入 类型标记（byte） + 值，不写字段名
+ * 实体类的字段有变化时字段个数或类型对不上，解码会抛出异常，CacheClient 会当作未命中处理
+ */
+public class BinaryCacheCodec implements CacheCodec {
+
+    public static final byte ID = 3;
+
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_LONG = 1;
+    private static final byte TAG_INT = 2;
+    private static final byte TAG_DOUBLE = 3;
+    private static final byte TAG_BOOLEAN = 4;
+    private static final byte TAG_STRING = 5;
+    private static final byte TAG_DATE_TIME = 6;
+
+    // 每个类需要序列化的字段，按字段名排序
+    private final Map<Class<?>, Field[]> fieldCache = new ConcurrentHashMap<>();
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public String name() {
+        return "binary";
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        Field[] fields = fieldsOf(value.getClass());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeShort(fields.length);
+            for (Field field : fields) {
+                writeValue(out, field.get(value));
+            }
+        } catch (IOException | IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public <R> R decode(byte[] bytes, int offset, int length, Class<R> type) {
+        Field[] fields = fieldsOf(type);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, offset, length))) {
+            if (in.readShort() != fields.length) {
+                throw new IllegalStateException("字段个数不一致：" + type.getName());
+            }
+            R r = type.newInstance();
+            for (Field field : fields) {
+                Object fieldValue = readValue(in);
+                if (fieldValue != null) {
+                    field.set(r, fieldValue);
+                }
+            }
+            return r;
+        } catch (IOException | ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(TAG_NULL);
+        } else if (value instanceof Long) {
+            out.writeByte(TAG_LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(TAG_INT);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Double) {
+            out.writeByte(TAG_DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(TAG_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof String) {
+            byte[] str = ((String) value).getBytes(StandardCharsets.UTF_8);
+            out.writeByte(TAG_STRING);
+            out.writeInt(str.length);
+            out.write(str);
+        } else if (value instanceof LocalDateTime) {
+            LocalDateTime time = (LocalDateTime) value;
+            out.writeByte(TAG_DATE_TIME);
+            out.writeLong(time.toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(time.getNano());
+        } else {
+            throw new IllegalArgumentException("二进制编码不支持的类型：" + value.getClass().getName());
+        }
+    }
+
+    private Object readValue(DataInputStream in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_LONG:
+                return in.readLong();
+            case TAG_INT:
+                return in.readInt();
+            case TAG_DOUBLE:
+                return in.readDouble();
+            case TAG_BOOLEAN:
+                return in.readBoolean();
+            case TAG_STRING:
+                byte[] str = new byte[in.readInt()];
+                in.readFully(str);
+                return new String(str, StandardCharsets.UTF_8);
+            case TAG_DATE_TIME:
+                return LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC);
+            default:
+                throw new IllegalStateException("未知的类型标记：" + tag);
+        }
+    }
+
+    private Field[] fieldsOf(Class<?> type) {
+        return fieldCache.computeIfAbsent(type, t -> {
+            List<Field> fields = new ArrayList<>();
+            for (Class<?> c = t; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers()) || Modifier.isTransient(field.getModifiers())) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    fields.add(field);
+                }
+            }
+            fields.sort(Comparator.comparing(Field::getName));
+            return fields.toArray(new Field[0]);
+        });
+    }
+}
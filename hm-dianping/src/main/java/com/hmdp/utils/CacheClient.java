@@ -1,175 +1,636 @@
 package com.hmdp.utils;
 
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
+import static com.hmdp.utils.CacheMetrics.*;
+import static com.hmdp.utils.RedisConstants.CACHE_EARLY_REFRESH_BETA;
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+import static com.hmdp.utils.RedisConstants.CACHE_LOCK_KEY;
 import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
-import static com.hmdp.utils.RedisConstants.LOCK_SHOP_KEY;
 
 /**
  * 封装缓存的工具类
+ * 读取顺序：本地缓存（L1） -> Redis（L2） -> 数据库，写入和删除时会广播失效消息，让所有节点删除自己的 L1
+ * 缓存值以字节数组的形式存储，编码格式由 CacheCodecs 按照 keyPrefix 决定，空数组代表空值
+ * 每种查询方式的命中、未命中、重建耗时等记录在 CacheMetrics 中
+ * 所有写入的过期时间都会加上随机的抖动，同一批写入的 key 不会在同一时刻过期
  */
 @Slf4j
 @Component
 public class CacheClient {
 
+    private static final byte[] NULL_BYTES = new byte[0];
+
+    // 过期时间的随机抖动：按比例和按固定秒数两种，取较大的一个，0 表示不抖动
+    @Value("${hmdp.cache.ttl-jitter-ratio:0.1}")
+    private double ttlJitterRatio;
+    @Value("${hmdp.cache.ttl-jitter-seconds:0}")
+    private long ttlJitterSeconds;
+
+    // 锁和消息使用字符串的模板，缓存值使用字节数组的模板
     private final StringRedisTemplate stringRedisTemplate;
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    private final RedisTemplate<String, byte[]> byteRedisTemplate;
+
+    private final LocalCache localCache;
+
+    private final CacheCodecs cacheCodecs;
+
+    private final HotKeyDetector hotKeyDetector;
+
+    private final CacheMetrics cacheMetrics;
+
+    // keyPrefix -> 布隆过滤器，注册过的前缀查询前会先判断 id 是否可能存在
+    private final Map<String, RedisBloomFilter> bloomFilters = new ConcurrentHashMap<>();
+
+    // 后台重建共用的线程池，有界、去重、按访问频率排序
+    private final CacheRebuildScheduler rebuildScheduler;
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    // Redis 客户端缓存，开启时配置的前缀先从这里读取
+    private final TrackingCache trackingCache;
+
+    // 合并同一个 key 的并发重建
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    public CacheClient(StringRedisTemplate stringRedisTemplate, RedisTemplate<String, byte[]> byteRedisTemplate,
+                       LocalCache localCache, CacheCodecs cacheCodecs, HotKeyDetector hotKeyDetector,
+                       CacheMetrics cacheMetrics, CacheRebuildScheduler rebuildScheduler,
+                       TrackingCache trackingCache) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.byteRedisTemplate = byteRedisTemplate;
+        this.localCache = localCache;
+        this.cacheCodecs = cacheCodecs;
+        this.hotKeyDetector = hotKeyDetector;
+        this.cacheMetrics = cacheMetrics;
+        this.rebuildScheduler = rebuildScheduler;
+        this.trackingCache = trackingCache;
+    }
+
+    public void registerBloomFilter(String keyPrefix, RedisBloomFilter bloomFilter) {
+        bloomFilters.put(keyPrefix, bloomFilter);
     }
 
     // 普通的缓存数据
     public void set(String key, Object value, Long time, TimeUnit unit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+        byteRedisTemplate.opsForValue()
+                .set(key, cacheCodecs.encode(key, value), jitterMillis(time, unit), TimeUnit.MILLISECONDS);
+        publishInvalidate(key);
+    }
+
+    /**
+     * 只在 key 不存在时写入，不发送失效通知，预热时使用：已有的缓存可能比预热读到的数据更新，不能覆盖
+     */
+    public void setIfAbsent(String key, Object value, Long time, TimeUnit unit) {
+        byteRedisTemplate.opsForValue()
+                .setIfAbsent(key, cacheCodecs.encode(key, value), jitterMillis(time, unit), TimeUnit.MILLISECONDS);
     }
 
     // 逻辑过期的缓存数据
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit) {
-        // 设置逻辑过期
-        RedisData redisData = new RedisData();
-        redisData.setData(value);
-        // 在当前时间添加 传入的时间，得到逻辑国企的时间
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
-        // 写入Redis
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        setWithLogicalExpire(key, value, time, unit, 0);
+    }
+
+    /**
+     * @param recomputeMillis 查询数据库花费的时间，提前刷新时根据它计算刷新的概率
+     */
+    public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit, long recomputeMillis) {
+        setWithSoftExpire(key, value, time, null, unit, recomputeMillis);
+    }
+
+    /**
+     * 软过期 + 硬过期：软过期时间写在缓存值的头部，过了软过期在后台刷新；硬过期是 Redis 的 TTL，保证最终一定会被删除
+     * @param softTime 软过期时间
+     * @param hardTime 硬过期时间，为 null 时不设置 TTL，等同于逻辑过期
+     */
+    public void setWithSoftExpire(String key, Object value, Long softTime, Long hardTime, TimeUnit unit) {
+        setWithSoftExpire(key, value, softTime, hardTime, unit, 0);
+    }
+
+    private void setWithSoftExpire(
+            String key, Object value, Long softTime, Long hardTime, TimeUnit unit, long recomputeMillis) {
+        // 在当前时间添加 传入的时间，得到逻辑过期的时间
+        LocalDateTime expireTime = LocalDateTime.now().plus(Duration.ofMillis(jitterMillis(softTime, unit)));
+        // 写入Redis，过期时间写在缓存值的头部，读取时不需要解析两次
+        byte[] bytes = cacheCodecs.encodeWithLogicalExpire(key, value, expireTime, recomputeMillis);
+        if (hardTime == null) {
+            byteRedisTemplate.opsForValue().set(key, bytes);
+        } else {
+            byteRedisTemplate.opsForValue().set(key, bytes, jitterMillis(hardTime, unit), TimeUnit.MILLISECONDS);
+        }
+        publishInvalidate(key);
+    }
+
+    /**
+     * 批量写入逻辑过期的缓存，只写入不存在的 key（SET NX），所有的写入放在一个 pipeline 中，预热时使用；
+     * 已有的缓存可能是读取数据库之后才更新的，不能被预热的旧数据覆盖，写入的都是新的 key，所以也不需要发送失效通知
+     * @param values key -> 数据
+     */
+    public void setBatchIfAbsentWithLogicalExpire(Map<String, ?> values, Long time, TimeUnit unit) {
+        LocalDateTime now = LocalDateTime.now();
+        byteRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Map.Entry<String, ?> entry : values.entrySet()) {
+                byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                // 预热时同一批写入的 key 最容易同时过期，每个 key 单独计算抖动
+                LocalDateTime expireTime = now.plus(Duration.ofMillis(jitterMillis(time, unit)));
+                connection.stringCommands().set(key,
+                        cacheCodecs.encodeWithLogicalExpire(entry.getKey(), entry.getValue(), expireTime),
+                        Expiration.persistent(), RedisStringCommands.SetOption.ifAbsent());
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 只读取 Redis 中的缓存，不存在、空值或者已经逻辑过期时返回 null，不查询数据库
+     */
+    public <R> R get(String key, Class<R> type) {
+        return decode(key, read(key), type);
+    }
+
+    // 删除缓存，数据库更新以后调用
+    public void delete(String key) {
+        byteRedisTemplate.delete(key);
+        publishInvalidate(key);
     }
 
     public <R,ID> R queryWithPassThrough(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit){
         String key = keyPrefix + id;
+        // 布隆过滤器判断不存在，直接返回，不访问 Redis 和数据库
+        if (!mightContain(keyPrefix, id)) {
+            return null;
+        }
+        // 0.先查本地缓存
+        Object local = getLocal(keyPrefix, key, PASS_THROUGH);
+        if (local != null) {
+            return local == LocalCache.NULL_VALUE ? null : type.cast(local);
+        }
         // 1.从redis查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] bytes = read(key);
         // 2.判断是否存在
-        if (StrUtil.isNotBlank(json)) {
-            // 3.存在，直接返回
-            return JSONUtil.toBean(json, type);
+        R cached = decode(key, bytes, type);
+        if (cached != null) {
+            // 3.存在，写入本地缓存后返回
+            cacheMetrics.hit(keyPrefix, PASS_THROUGH, "redis", 1);
+            localCache.put(key, cached);
+            return cached;
         }
         // 判断命中的是否是空值
-        if (json != null) {
+        if (bytes != null && bytes.length == 0) {
+            cacheMetrics.nullHit(keyPrefix, PASS_THROUGH, 1);
+            localCache.put(key, LocalCache.NULL_VALUE);
             // 返回一个错误信息
             return null;
         }
 
         // 4.不存在，根据id查询数据库
+        cacheMetrics.miss(keyPrefix, PASS_THROUGH, 1);
+        long begin = System.nanoTime();
         R r = dbFallback.apply(id);
+        cacheMetrics.recordDbLoad(keyPrefix, PASS_THROUGH, System.nanoTime() - begin);
         // 5.不存在，返回错误
         if (r == null) {
             // 将空值写入redis
-            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+            setNull(key);
             // 返回错误信息
             return null;
         }
         // 6.存在，写入redis
         this.set(key, r, time, unit);
+        cacheMetrics.recordRebuild(keyPrefix, PASS_THROUGH, System.nanoTime() - begin);
         return r;
     }
 
     public <R, ID> R queryWithLogicalExpire(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
         String key = keyPrefix + id;
+        // 0.先查本地缓存，本地缓存中存的是已经反序列化好的 RedisData
+        hotKeyDetector.record(key);
+        Object local = localCache.get(key);
+        if (local instanceof RedisData && ((RedisData) local).getExpireTime().isAfter(LocalDateTime.now())) {
+            cacheMetrics.hit(keyPrefix, LOGICAL_EXPIRE, "local", 1);
+            return type.cast(((RedisData) local).getData());
+        }
         // 1.从redis查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] bytes = read(key);
         // 2.判断是否存在
-        if (StrUtil.isBlank(json)) {
-            // 3.存在，直接返回
+        if (bytes == null || bytes.length == 0) {
+            // 3.不存在，直接返回
+            cacheMetrics.miss(keyPrefix, LOGICAL_EXPIRE, 1);
+            return null;
+        }
+        // 4.命中，反序列化为对象，过期时间在头部，数据只解析一次
+        RedisData redisData;
+        try {
+            redisData = cacheCodecs.decodeWithLogicalExpire(key, bytes, type);
+        } catch (RuntimeException e) {
+            log.warn("缓存 {} 解码失败", key, e);
+            cacheMetrics.miss(keyPrefix, LOGICAL_EXPIRE, 1);
             return null;
         }
-        // 4.命中，需要先把json反序列化为对象
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+        R r = type.cast(redisData.getData());
         LocalDateTime expireTime = redisData.getExpireTime();
         // 5.判断是否过期
         if(expireTime.isAfter(LocalDateTime.now())) {
-            // 5.1.未过期，直接返回店铺信息
+            // 5.1.未过期，写入本地缓存，直接返回店铺信息
+            cacheMetrics.hit(keyPrefix, LOGICAL_EXPIRE, "redis", 1);
+            localCache.put(key, redisData);
             return r;
         }
         // 5.2.已过期，需要缓存重建
+        cacheMetrics.staleServed(keyPrefix, LOGICAL_EXPIRE);
         // 6.缓存重建
+        rebuildAsync(keyPrefix, LOGICAL_EXPIRE, id, dbFallback, time, null, unit);
+        // 6.4.返回过期的商铺信息
+        return r;
+    }
+
+    /**
+     * 提前刷新（XFetch）：在逻辑过期之前，每次读取都以一定的概率提前重建缓存
+     * 剩余时间越短、上次重建越慢，提前刷新的概率越大，重建的压力被分散到过期前的一段时间里，不会在过期的瞬间集中爆发
+     * 缓存需要先用 setWithLogicalExpire 写入
+     */
+    public <R, ID> R queryWithEarlyRefresh(
+            String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        // 1.先查本地缓存，没有再查redis
+        hotKeyDetector.record(key);
+        Object local = localCache.get(key);
+        RedisData redisData = local instanceof RedisData ? (RedisData) local : null;
+        if (redisData == null) {
+            byte[] bytes = read(key);
+            if (bytes == null || bytes.length == 0) {
+                cacheMetrics.miss(keyPrefix, EARLY_REFRESH, 1);
+                return null;
+            }
+            try {
+                redisData = cacheCodecs.decodeWithLogicalExpire(key, bytes, type);
+            } catch (RuntimeException e) {
+                log.warn("缓存 {} 解码失败", key, e);
+                cacheMetrics.miss(keyPrefix, EARLY_REFRESH, 1);
+                return null;
+            }
+            cacheMetrics.hit(keyPrefix, EARLY_REFRESH, "redis", 1);
+            localCache.put(key, redisData);
+        } else {
+            cacheMetrics.hit(keyPrefix, EARLY_REFRESH, "local", 1);
+        }
+        // 2.计算是否需要提前刷新：now - cost * beta * ln(random) >= expire，过期以后一定刷新
+        long remainMillis = Duration.between(LocalDateTime.now(), redisData.getExpireTime()).toMillis();
+        double gap = -redisData.getRecomputeMillis() * CACHE_EARLY_REFRESH_BETA
+                * Math.log(ThreadLocalRandom.current().nextDouble());
+        if (remainMillis <= 0) {
+            cacheMetrics.staleServed(keyPrefix, EARLY_REFRESH);
+        }
+        if (remainMillis <= 0 || gap >= remainMillis) {
+            rebuildAsync(keyPrefix, EARLY_REFRESH, id, dbFallback, time, null, unit);
+        }
+        // 3.返回当前的数据，刷新在后台进行
+        return type.cast(redisData.getData());
+    }
+
+    /**
+     * 软过期的缓存：没过软过期直接返回；过了软过期返回旧数据，同时在后台刷新；
+     * 过了硬过期 Redis 已经删除了 key，按照互斥锁的方式同步加载
+     */
+    public <R, ID> R queryWithSoftExpire(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback,
+                                         Long softTime, Long hardTime, TimeUnit unit) {
+        String key = keyPrefix + id;
+        // 布隆过滤器判断不存在，直接返回，不访问 Redis 和数据库
+        if (!mightContain(keyPrefix, id)) {
+            return null;
+        }
+        // 1.先查本地缓存
+        hotKeyDetector.record(key);
+        Object local = localCache.get(key);
+        if (local == LocalCache.NULL_VALUE) {
+            cacheMetrics.nullHit(keyPrefix, SOFT_EXPIRE, 1);
+            return null;
+        }
+        if (local instanceof RedisData && ((RedisData) local).getExpireTime().isAfter(LocalDateTime.now())) {
+            cacheMetrics.hit(keyPrefix, SOFT_EXPIRE, "local", 1);
+            return type.cast(((RedisData) local).getData());
+        }
+        // 2.查询redis
+        byte[] bytes = read(key);
+        if (bytes != null && bytes.length == 0) {
+            cacheMetrics.nullHit(keyPrefix, SOFT_EXPIRE, 1);
+            localCache.put(key, LocalCache.NULL_VALUE);
+            return null;
+        }
+        if (bytes != null) {
+            try {
+                RedisData redisData = cacheCodecs.decodeWithLogicalExpire(key, bytes, type);
+                R r = type.cast(redisData.getData());
+                // 3.没过软过期，写入本地缓存后返回
+                if (redisData.getExpireTime().isAfter(LocalDateTime.now())) {
+                    cacheMetrics.hit(keyPrefix, SOFT_EXPIRE, "redis", 1);
+                    localCache.put(key, redisData);
+                    return r;
+                }
+                // 4.过了软过期，返回旧数据，后台刷新
+                cacheMetrics.staleServed(keyPrefix, SOFT_EXPIRE);
+                rebuildAsync(keyPrefix, SOFT_EXPIRE, id, dbFallback, softTime, hardTime, unit);
+                return r;
+            } catch (RuntimeException e) {
+                log.warn("缓存 {} 解码失败", key, e);
+            }
+        }
+        // 5.过了硬过期或者从未写入，同步加载
+        cacheMetrics.miss(keyPrefix, SOFT_EXPIRE, 1);
+        return singleFlight.execute(key, () -> rebuildWithMutex(keyPrefix, id, type, dbFallback, SOFT_EXPIRE,
+                r -> setWithSoftExpire(key, r, softTime, hardTime, unit)));
+    }
+
+    // 获取互斥锁成功后开启独立线程重建逻辑过期的缓存，并记录重建耗时，hardTime 为 null 时不设置 TTL
+    private <R, ID> void rebuildAsync(String keyPrefix, String strategy, ID id, Function<ID, R> dbFallback,
+                                      Long time, Long hardTime, TimeUnit unit) {
+        String key = keyPrefix + id;
+        // 本节点已经在重建，不用再去竞争锁
+        if (rebuildScheduler.isPending(key)) {
+            return;
+        }
         // 6.1.获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
+        String lockKey = CACHE_LOCK_KEY + key;
         boolean isLock = tryLock(lockKey);
         // 6.2.判断是否获取锁成功
-        if (isLock){
-            // 6.3.成功，开启独立线程，实现缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    // 查询数据库
-                    R newR = dbFallback.apply(id);
-                    // 重建缓存
-                    this.setWithLogicalExpire(key, newR, time, unit);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }finally {
-                    // 释放锁
-                    unlock(lockKey);
+        if (!isLock) {
+            cacheMetrics.lockFailure(keyPrefix, strategy);
+            return;
+        }
+        // 6.3.成功，提交到重建线程池，没有被接受时释放锁，调用方继续返回旧数据
+        boolean accepted = rebuildScheduler.submit(keyPrefix, key, () -> {
+            try {
+                long begin = System.nanoTime();
+                // 查询数据库
+                R newR = dbFallback.apply(id);
+                long dbNanos = System.nanoTime() - begin;
+                cacheMetrics.recordDbLoad(keyPrefix, strategy, dbNanos);
+                // 数据已经被删除，写入空值替换旧数据，并通知所有节点删除本地缓存，否则旧数据会一直被返回
+                if (newR == null) {
+                    setNull(key);
+                    publishInvalidate(key);
+                    return;
                 }
-            });
+                // 重建缓存
+                this.setWithSoftExpire(key, newR, time, hardTime, unit,
+                        Math.max(1, TimeUnit.NANOSECONDS.toMillis(dbNanos)));
+                cacheMetrics.recordRebuild(keyPrefix, strategy, System.nanoTime() - begin);
+            } finally {
+                // 释放锁
+                unlock(lockKey);
+            }
+        });
+        if (!accepted) {
+            unlock(lockKey);
         }
-        // 6.4.返回过期的商铺信息
-        return r;
     }
 
     public <R, ID> R queryWithMutex(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
         String key = keyPrefix + id;
+        // 布隆过滤器判断不存在，直接返回，不访问 Redis 和数据库
+        if (!mightContain(keyPrefix, id)) {
+            return null;
+        }
+        // 0.先查本地缓存
+        Object local = getLocal(keyPrefix, key, MUTEX);
+        if (local != null) {
+            return local == LocalCache.NULL_VALUE ? null : type.cast(local);
+        }
         // 1.从redis查询商铺缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
+        byte[] bytes = read(key);
         // 2.判断是否存在
-        if (StrUtil.isNotBlank(shopJson)) {
-            // 3.存在，直接返回
-            return JSONUtil.toBean(shopJson, type);
+        R cached = decode(key, bytes, type);
+        if (cached != null) {
+            // 3.存在，写入本地缓存后返回
+            cacheMetrics.hit(keyPrefix, MUTEX, "redis", 1);
+            localCache.put(key, cached);
+            return cached;
         }
         // 判断命中的是否是空值
-        if (shopJson != null) {
+        if (bytes != null && bytes.length == 0) {
+            cacheMetrics.nullHit(keyPrefix, MUTEX, 1);
+            localCache.put(key, LocalCache.NULL_VALUE);
             // 返回一个错误信息
             return null;
         }
 
-        // 4.实现缓存重建
-        // 4.1.获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        R r = null;
+        // 4.实现缓存重建，同一个 key 在本节点只有一个线程去竞争 Redis 的互斥锁，其余线程直接等待它的结果
+        cacheMetrics.miss(keyPrefix, MUTEX, 1);
+        return singleFlight.execute(key, () -> rebuildWithMutex(keyPrefix, id, type, dbFallback, MUTEX,
+                r -> set(key, r, time, unit)));
+    }
+
+    // 获取互斥锁后查询数据库，用 writer 写入缓存
+    private <R, ID> R rebuildWithMutex(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback,
+                                       String strategy, Consumer<R> writer) {
+        String key = keyPrefix + id;
+        String lockKey = CACHE_LOCK_KEY + key;
         try {
-            boolean isLock = tryLock(lockKey);
-            // 4.2.判断是否获取成功
-            if (!isLock) {
-                // 4.3.获取锁失败，休眠并重试
+            while (true) {
+                // 4.1.再查一次redis，可能其他线程或者其他节点已经重建完成
+                byte[] bytes = read(key);
+                R cached = decode(key, bytes, type);
+                if (cached != null) {
+                    return cached;
+                }
+                if (bytes != null && bytes.length == 0) {
+                    return null;
+                }
+                // 4.2.获取互斥锁
+                if (tryLock(lockKey)) {
+                    try {
+                        // 4.3.获取锁成功，根据id查询数据库
+                        long begin = System.nanoTime();
+                        R r = dbFallback.apply(id);
+                        cacheMetrics.recordDbLoad(keyPrefix, strategy, System.nanoTime() - begin);
+                        // 5.不存在，将空值写入redis
+                        if (r == null) {
+                            setNull(key);
+                            return null;
+                        }
+                        // 6.存在，写入redis
+                        writer.accept(r);
+                        cacheMetrics.recordRebuild(keyPrefix, strategy, System.nanoTime() - begin);
+                        return r;
+                    } finally {
+                        // 7.释放锁
+                        unlock(lockKey);
+                    }
+                }
+                // 4.4.锁被其他节点持有，休眠后循环重试，不再递归
+                cacheMetrics.lockFailure(keyPrefix, strategy);
                 Thread.sleep(50);
-                return queryWithMutex(keyPrefix, id, type, dbFallback, time, unit);
             }
-            // 4.4.获取锁成功，根据id查询数据库
-            r = dbFallback.apply(id);
-            // 5.不存在，返回错误
-            if (r == null) {
-                // 将空值写入redis
-                stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-                // 返回错误信息
-                return null;
-            }
-            // 6.存在，写入redis
-            this.set(key, r, time, unit);
         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new RuntimeException(e);
-        }finally {
-            // 7.释放锁
-            unlock(lockKey);
         }
-        // 8.返回
-        return r;
+    }
+
+    /**
+     * 批量查询，先查本地缓存，再一次 MGET 查 Redis，剩下的一次性查数据库，最后用一个 pipeline 回写 Redis
+     * @param dbBatchFallback 根据多个 id 查询数据库，返回 id -> 数据，不存在的 id 不放进去
+     * @return id -> 数据，按照传入 ids 的顺序，不存在的 id 不包含在内
+     */
+    public <R, ID> Map<ID, R> queryBatch(
+            String keyPrefix, Collection<ID> ids, Class<R> type,
+            Function<Collection<ID>, Map<ID, R>> dbBatchFallback, Long time, TimeUnit unit) {
+        Map<ID, R> found = new HashMap<>(ids.size());
+        // 1.去重，布隆过滤器判断不存在的直接跳过
+        List<ID> candidates = ids.stream().distinct()
+                .filter(id -> mightContain(keyPrefix, id)).collect(Collectors.toList());
+        // 2.先查本地缓存
+        List<ID> remoteIds = new ArrayList<>(candidates.size());
+        int nullHits = 0;
+        for (ID id : candidates) {
+            String key = keyPrefix + id;
+            hotKeyDetector.record(key);
+            Object local = localCache.get(key);
+            if (local == null) {
+                remoteIds.add(id);
+            } else if (local != LocalCache.NULL_VALUE) {
+                found.put(id, type.cast(local));
+            } else {
+                nullHits++;
+            }
+        }
+        cacheMetrics.hit(keyPrefix, BATCH, "local", found.size());
+        // 3.一次 MGET 查询 Redis
+        List<ID> missingIds = new ArrayList<>();
+        if (!remoteIds.isEmpty()) {
+            List<String> keys = remoteIds.stream().map(id -> keyPrefix + id).collect(Collectors.toList());
+            // 使用客户端缓存的前缀逐个读取，大部分在本地命中
+            List<byte[]> values = trackingCache.supports(keyPrefix)
+                    ? keys.stream().map(trackingCache::get).collect(Collectors.toList())
+                    : byteRedisTemplate.opsForValue().multiGet(keys);
+            for (int i = 0; i < remoteIds.size(); i++) {
+                ID id = remoteIds.get(i);
+                byte[] bytes = values == null ? null : values.get(i);
+                R r = decode(keys.get(i), bytes, type);
+                if (r != null) {
+                    localCache.put(keys.get(i), r);
+                    found.put(id, r);
+                } else if (bytes != null && bytes.length == 0) {
+                    // 命中空值
+                    nullHits++;
+                    localCache.put(keys.get(i), LocalCache.NULL_VALUE);
+                } else {
+                    missingIds.add(id);
+                }
+            }
+            cacheMetrics.hit(keyPrefix, BATCH, "redis", remoteIds.size() - missingIds.size());
+        }
+        cacheMetrics.nullHit(keyPrefix, BATCH, nullHits);
+        cacheMetrics.miss(keyPrefix, BATCH, missingIds.size());
+        // 4.未命中的 id 一次性查询数据库，再用一个 pipeline 回写，不存在的写入空值
+        if (!missingIds.isEmpty()) {
+            long begin = System.nanoTime();
+            Map<ID, R> loaded = dbBatchFallback.apply(missingIds);
+            cacheMetrics.recordDbLoad(keyPrefix, BATCH, System.nanoTime() - begin);
+            found.putAll(loaded);
+            byte[] channel = CACHE_INVALIDATE_CHANNEL.getBytes(StandardCharsets.UTF_8);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (ID id : missingIds) {
+                    String keyStr = keyPrefix + id;
+                    byte[] key = keyStr.getBytes(StandardCharsets.UTF_8);
+                    R r = loaded.get(id);
+                    if (r == null) {
+                        connection.stringCommands().set(key, NULL_BYTES, Expiration.milliseconds(
+                                jitterMillis(CACHE_NULL_TTL, TimeUnit.MINUTES)), RedisStringCommands.SetOption.upsert());
+                    } else {
+                        connection.stringCommands().set(key, cacheCodecs.encode(keyStr, r), Expiration.milliseconds(
+                                jitterMillis(time, unit)), RedisStringCommands.SetOption.upsert());
+                        connection.publish(channel, key);
+                    }
+                }
+                return null;
+            });
+            cacheMetrics.recordRebuild(keyPrefix, BATCH, System.nanoTime() - begin);
+        }
+        // 5.按照传入的顺序返回
+        Map<ID, R> result = new LinkedHashMap<>(found.size());
+        for (ID id : ids) {
+            R r = found.get(id);
+            if (r != null) {
+                result.put(id, r);
+            }
+        }
+        return result;
+    }
+
+    // 读取 Redis 中的缓存值，开启了客户端缓存的前缀优先读本地
+    private byte[] read(String key) {
+        return trackingCache.supports(key) ? trackingCache.get(key) : byteRedisTemplate.opsForValue().get(key);
+    }
+
+    // 写入空值，防止缓存穿透
+    private void setNull(String key) {
+        byteRedisTemplate.opsForValue()
+                .set(key, NULL_BYTES, jitterMillis(CACHE_NULL_TTL, TimeUnit.MINUTES), TimeUnit.MILLISECONDS);
+    }
+
+    // 在过期时间上加上随机的抖动，返回毫秒数，只会变长不会变短，AsyncCacheClient 也使用
+    long jitterMillis(Long time, TimeUnit unit) {
+        long millis = unit.toMillis(time);
+        long bound = Math.max((long) (millis * ttlJitterRatio), TimeUnit.SECONDS.toMillis(ttlJitterSeconds));
+        return bound <= 0 ? millis : millis + ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+
+    // 记录访问用于热点探测，再查本地缓存，本地命中（包括空值）时记录指标
+    private Object getLocal(String keyPrefix, String key, String strategy) {
+        hotKeyDetector.record(key);
+        Object local = localCache.get(key);
+        if (local == LocalCache.NULL_VALUE) {
+            cacheMetrics.nullHit(keyPrefix, strategy, 1);
+        } else if (local != null) {
+            cacheMetrics.hit(keyPrefix, strategy, "local", 1);
+        }
+        return local;
+    }
+
+    // 解码缓存值，不存在、空值、逻辑过期或者解码失败都返回 null，逻辑过期和解码失败当作未命中处理
+    private <R> R decode(String key, byte[] bytes, Class<R> type) {
+        if (bytes == null || bytes.length == 0 || cacheCodecs.isLogicallyExpired(bytes)) {
+            return null;
+        }
+        try {
+            return cacheCodecs.decode(key, bytes, type);
+        } catch (RuntimeException e) {
+            log.warn("缓存 {} 解码失败", key, e);
+            return null;
+        }
+    }
+
+    boolean mightContain(String keyPrefix, Object id) {
+        RedisBloomFilter bloomFilter = bloomFilters.get(keyPrefix);
+        return bloomFilter == null || bloomFilter.mightContain(id);
+    }
+
+    // 广播失效消息，所有节点（包括自己）收到后删除本地缓存
+    private void publishInvalidate(String key) {
+        localCache.invalidate(key);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
     }
 
     private boolean tryLock(String key) {
@@ -0,0 +1,23 @@
+package com.hmdp.utils;
+
+/**
+ * 缓存值的编解码器，不同的 keyPrefix 可以使用不同的实现
+ * 每个编解码器有一个唯一的 id，会写在缓存值的第一个字节里，读取时按照这个字节选择编解码器，
+ * 所以切换编码格式以后不需要清空缓存
+ */
+public interface CacheCodec {
+
+    /**
+     * @return 编解码器的 id，取值 1~15
+     */
+    byte id();
+
+    /**
+     * @return 编解码器的名称，配置时使用
+     */
+    String name();
+
+    byte[] encode(Object value);
+
+    <R> R decode(byte[] bytes, int offset, int length, Class<R> type);
+}
@@ -0,0 +1,226 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 管理所有的编解码器，并负责缓存值的格式：
+ * 第 1 个字节是头部，低 4 位是编解码器 id，LOGICAL_EXPIRE 位表示后面紧跟 8 个字节的逻辑过期时间（毫秒），
+ * RECOMPUTE_COST 位表示再跟 4 个字节的重建耗时（毫秒），COMPRESSED 位表示再跟 4 个字节的原始长度，数据经过 LZ4 压缩，
+ * 剩下的是编码后的数据
+ * 空数组代表空值；第一个字节是 '{' 或者 '[' 的是升级之前 JSONUtil 直接写入的旧数据，按原来的方式解析
+ * （这两个字节的低 4 位是 11，不是任何编解码器的 id，不会和新格式冲突）
+ */
+@Component
+public class CacheCodecs {
+
+    public static final int CODEC_MASK = 0x0F;
+    public static final int LOGICAL_EXPIRE = 0x10;
+    public static final int RECOMPUTE_COST = 0x20;
+    public static final int COMPRESSED = 0x40;
+
+    private static final LZ4Compressor COMPRESSOR = LZ4Factory.fastestInstance().fastCompressor();
+    private static final LZ4FastDecompressor DECOMPRESSOR = LZ4Factory.fastestInstance().fastDecompressor();
+
+    private final Map<Byte, CacheCodec> byId = new ConcurrentHashMap<>();
+    private final Map<String, CacheCodec> byName = new ConcurrentHashMap<>();
+    // keyPrefix -> 写入时使用的编解码器
+    private final Map<String, CacheCodec> byPrefix = new ConcurrentHashMap<>();
+
+    private final CacheCodec defaultCodec;
+
+    private final CacheMetrics cacheMetrics;
+
+    // 编码后超过这个字节数才压缩，太小的数据压缩得不偿失
+    @Value("${hmdp.cache.compress-threshold:1024}")
+    private int compressThreshold = 1024;
+
+    public CacheCodecs(CacheMetrics cacheMetrics) {
+        this.cacheMetrics = cacheMetrics;
+        this.defaultCodec = new JsonCacheCodec();
+        addCodec(defaultCodec);
+        addCodec(new JacksonCacheCodec());
+        addCodec(new BinaryCacheCodec());
+    }
+
+    public void addCodec(CacheCodec codec) {
+        byId.put(codec.id(), codec);
+        byName.put(codec.name(), codec);
+    }
+
+    /**
+     * 指定某个前缀写入时使用的编解码器，读取时始终按照头部的 id 解码
+     * @param codecName json、jackson、binary
+     */
+    public void register(String keyPrefix, String codecName) {
+        CacheCodec codec = byName.get(codecName);
+        if (codec == null) {
+            throw new IllegalArgumentException("未知的编解码器：" + codecName);
+        }
+        byPrefix.put(keyPrefix, codec);
+    }
+
+    public byte[] encode(String key, Object value) {
+        return encode(key, value, null, 0);
+    }
+
+    public byte[] encodeWithLogicalExpire(String key, Object value, LocalDateTime expireTime) {
+        return encodeWithLogicalExpire(key, value, expireTime, 0);
+    }
+
+    /**
+     * @param recomputeMillis 本次重建缓存花费的时间，大于 0 时写入头部
+     */
+    public byte[] encodeWithLogicalExpire(String key, Object value, LocalDateTime expireTime, long recomputeMillis) {
+        return encode(key, value, expireTime, recomputeMillis);
+    }
+
+    private byte[] encode(String key, Object value, LocalDateTime expireTime, long recomputeMillis) {
+        CacheCodec codec = codecOf(key);
+        byte[] payload = codec.encode(value);
+        int originalLength = payload.length;
+        // 1.超过阈值的尝试压缩，压缩后没有变小的保留原始数据
+        boolean compressed = false;
+        if (originalLength >= compressThreshold) {
+            long begin = System.nanoTime();
+            byte[] bytes = COMPRESSOR.compress(payload);
+            cacheMetrics.recordCompress(metricPrefix(key), originalLength, bytes.length, System.nanoTime() - begin);
+            if (bytes.length < originalLength) {
+                payload = bytes;
+                compressed = true;
+            }
+        }
+        // 2.写入头部和各个可选字段
+        boolean withExpire = expireTime != null;
+        boolean withCost = withExpire && recomputeMillis > 0;
+        int header = codec.id()
+                | (withExpire ? LOGICAL_EXPIRE : 0) | (withCost ? RECOMPUTE_COST : 0) | (compressed ? COMPRESSED : 0);
+        ByteBuffer buffer = ByteBuffer.allocate(payloadOffset(header) + payload.length).put((byte) header);
+        if (withExpire) {
+            buffer.putLong(expireTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+        }
+        if (withCost) {
+            buffer.putInt((int) Math.min(recomputeMillis, Integer.MAX_VALUE));
+        }
+        if (compressed) {
+            buffer.putInt(originalLength);
+        }
+        return buffer.put(payload).array();
+    }
+
+    public <R> R decode(String key, byte[] bytes, Class<R> type) {
+        if (isLegacyJson(bytes)) {
+            return JSONUtil.parse(new String(bytes, StandardCharsets.UTF_8)).toBean(type);
+        }
+        return decodePayload(key, bytes, bytes[0], type);
+    }
+
+    /**
+     * 解码逻辑过期的缓存值，data 为已经转换好的 R
+     */
+    public <R> RedisData decodeWithLogicalExpire(String key, byte[] bytes, Class<R> type) {
+        RedisData redisData;
+        if (isLegacyJson(bytes)) {
+            redisData = JSONUtil.toBean(new String(bytes, StandardCharsets.UTF_8), RedisData.class);
+            redisData.setData(JSONUtil.toBean((JSONObject) redisData.getData(), type));
+            return redisData;
+        }
+        int header = bytes[0];
+        if ((header & LOGICAL_EXPIRE) == 0) {
+            throw new IllegalStateException("缓存值没有逻辑过期时间");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 1, bytes.length - 1);
+        redisData = new RedisData();
+        redisData.setExpireTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(buffer.getLong()), ZoneId.systemDefault()));
+        if ((header & RECOMPUTE_COST) != 0) {
+            redisData.setRecomputeMillis(buffer.getInt());
+        }
+        redisData.setData(decodePayload(key, bytes, header, type));
+        return redisData;
+    }
+
+    // 解码头部之后的数据，压缩过的先解压
+    private <R> R decodePayload(String key, byte[] bytes, int header, Class<R> type) {
+        int offset = payloadOffset(header);
+        if ((header & COMPRESSED) == 0) {
+            return codecOf(header).decode(bytes, offset, bytes.length - offset, type);
+        }
+        int originalLength = ByteBuffer.wrap(bytes, offset - 4, 4).getInt();
+        long begin = System.nanoTime();
+        byte[] raw = DECOMPRESSOR.decompress(bytes, offset, originalLength);
+        cacheMetrics.recordDecompress(metricPrefix(key), System.nanoTime() - begin);
+        return codecOf(header).decode(raw, 0, raw.length, type);
+    }
+
+    // 根据头部的标记位计算数据开始的位置
+    private int payloadOffset(int header) {
+        int offset = 1;
+        if ((header & LOGICAL_EXPIRE) != 0) {
+            offset += 8;
+        }
+        if ((header & RECOMPUTE_COST) != 0) {
+            offset += 4;
+        }
+        if ((header & COMPRESSED) != 0) {
+            offset += 4;
+        }
+        return offset;
+    }
+
+    /**
+     * 带逻辑过期时间并且已经过期，普通的查询（互斥锁、缓存穿透）遇到这种数据当作未命中，例如预热写入的数据
+     */
+    public boolean isLogicallyExpired(byte[] bytes) {
+        if (isLegacyJson(bytes) || (bytes[0] & LOGICAL_EXPIRE) == 0) {
+            return false;
+        }
+        return ByteBuffer.wrap(bytes, 1, 8).getLong() < System.currentTimeMillis();
+    }
+
+    private boolean isLegacyJson(byte[] bytes) {
+        return bytes[0] == '{' || bytes[0] == '[';
+    }
+
+    private CacheCodec codecOf(int header) {
+        CacheCodec codec = byId.get((byte) (header & CODEC_MASK));
+        if (codec == null) {
+            throw new IllegalStateException("未知的编解码器 id：" + (header & CODEC_MASK));
+        }
+        return codec;
+    }
+
+    // 找到 key 对应的编解码器，没有配置的使用 JSON
+    private CacheCodec codecOf(String key) {
+        String prefix = prefixOf(key);
+        return prefix == null ? defaultCodec : byPrefix.get(prefix);
+    }
+
+    private String metricPrefix(String key) {
+        String prefix = prefixOf(key);
+        return prefix == null ? "other" : prefix;
+    }
+
+    // 取最长的匹配前缀，没有配置的返回 null
+    private String prefixOf(String key) {
+        String matched = null;
+        for (String prefix : byPrefix.keySet()) {
+            if (key.startsWith(prefix) && (matched == null || prefix.length() > matched.length())) {
+                matched = prefix;
+            }
+        }
+        return matched;
+    }
+}
@@ -0,0 +1,110 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * CacheClient 的监控指标，所有指标都带有 prefix（缓存 key 的前缀）和 strategy（查询方式）两个标签
+ * 通过 /actuator/prometheus 暴露，用来根据真实的命中率和重建耗时调整过期时间
+ */
+@Component
+public class CacheMetrics {
+
+    public static final String PASS_THROUGH = "passThrough";
+    public static final String MUTEX = "mutex";
+    public static final String LOGICAL_EXPIRE = "logicalExpire";
+    public static final String EARLY_REFRESH = "earlyRefresh";
+    public static final String SOFT_EXPIRE = "softExpire";
+    public static final String BATCH = "batch";
+    public static final String ASYNC_PASS_THROUGH = "asyncPassThrough";
+
+    private final MeterRegistry registry;
+
+    public CacheMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * 命中缓存
+     * @param level local：本地缓存，redis：Redis
+     */
+    public void hit(String keyPrefix, String strategy, String level, int count) {
+        registry.counter("cache.hit", "prefix", keyPrefix, "strategy", strategy, "level", level)
+                .increment(count);
+    }
+
+    // 缓存中没有，需要查询数据库
+    public void miss(String keyPrefix, String strategy, int count) {
+        registry.counter("cache.miss", "prefix", keyPrefix, "strategy", strategy).increment(count);
+    }
+
+    // 命中空值，数据库中也不存在
+    public void nullHit(String keyPrefix, String strategy, int count) {
+        registry.counter("cache.null.hit", "prefix", keyPrefix, "strategy", strategy).increment(count);
+    }
+
+    // 返回了逻辑过期的旧数据
+    public void staleServed(String keyPrefix, String strategy) {
+        registry.counter("cache.stale.served", "prefix", keyPrefix, "strategy", strategy).increment();
+    }
+
+    // 重建时没有拿到互斥锁
+    public void lockFailure(String keyPrefix, String strategy) {
+        registry.counter("cache.lock.failure", "prefix", keyPrefix, "strategy", strategy).increment();
+    }
+
+    // 一次重建的耗时：查询数据库加上写入 Redis
+    public void recordRebuild(String keyPrefix, String strategy, long nanos) {
+        timer("cache.rebuild", keyPrefix, strategy).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    // 查询数据库的耗时
+    public void recordDbLoad(String keyPrefix, String strategy, long nanos) {
+        timer("cache.db.load", keyPrefix, strategy).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 一次压缩：原始大小、压缩后大小和耗时，压缩率 = 压缩后 / 原始
+     */
+    public void recordCompress(String keyPrefix, int inputBytes, int outputBytes, long nanos) {
+        DistributionSummary.builder("cache.compress.input").baseUnit("bytes").tag("prefix", keyPrefix)
+                .register(registry).record(inputBytes);
+        DistributionSummary.builder("cache.compress.output").baseUnit("bytes").tag("prefix", keyPrefix)
+                .register(registry).record(outputBytes);
+        registry.timer("cache.compress", "prefix", keyPrefix).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    // 一次解压的耗时
+    public void recordDecompress(String keyPrefix, long nanos) {
+        registry.timer("cache.decompress", "prefix", keyPrefix).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    // 重建队列中等待的任务数
+    public void gaugeRebuildQueue(AtomicInteger queued) {
+        registry.gauge("cache.rebuild.queue.size", queued);
+    }
+
+    // 重建任务被放弃，reason：duplicate（已经在队列中）、full（队列已满）
+    public void rebuildRejected(String keyPrefix, String reason) {
+        registry.counter("cache.rebuild.rejected", "prefix", keyPrefix, "reason", reason).increment();
+    }
+
+    // 重建任务在队列中等待的时间
+    public void recordRebuildWait(String keyPrefix, long nanos) {
+        timer("cache.rebuild.wait", keyPrefix, "scheduler").record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private Timer timer(String name, String keyPrefix, String strategy) {
+        // 同名同标签的 Timer 只会注册一次，之后返回已有的
+        return Timer.builder(name)
+                .tag("prefix", keyPrefix)
+                .tag("strategy", strategy)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+}
@@ -0,0 +1,130 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 所有缓存后台重建共用的线程池
+ * 1.队列有上限，大量 key 同时过期时多出来的重建直接放弃，调用方继续返回旧数据
+ * 2.同一个 key 在队列中或者正在执行时不会重复提交
+ * 3.按照访问频率排序，越热的 key 越先重建，频率相同的按照提交顺序
+ */
+@Slf4j
+@Component
+public class CacheRebuildScheduler {
+
+    private final HotKeyDetector hotKeyDetector;
+
+    private final CacheMetrics cacheMetrics;
+
+    private final int queueCapacity;
+
+    private final ThreadPoolExecutor executor;
+
+    // 在队列中或者正在执行的 key
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    // 队列中的任务数，用来限制队列长度
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    public CacheRebuildScheduler(HotKeyDetector hotKeyDetector, CacheMetrics cacheMetrics,
+                                 @Value("${hmdp.cache.rebuild.threads:10}") int threads,
+                                 @Value("${hmdp.cache.rebuild.queue-size:1000}") int queueCapacity) {
+        this.hotKeyDetector = hotKeyDetector;
+        this.cacheMetrics = cacheMetrics;
+        this.queueCapacity = queueCapacity;
+        AtomicInteger index = new AtomicInteger();
+        // PriorityBlockingQueue 本身没有上限，长度由 queued 控制
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<>(), r -> {
+                    Thread thread = new Thread(r, "cache-rebuild-" + index.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        cacheMetrics.gaugeRebuildQueue(queued);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return key 是否已经在队列中或者正在重建
+     */
+    public boolean isPending(String key) {
+        return pending.contains(key);
+    }
+
+    /**
+     * 提交一个重建任务
+     * @return 是否接受，重复或者队列已满时返回 false，调用方需要自己释放已经获取的锁
+     */
+    public boolean submit(String keyPrefix, String key, Runnable task) {
+        // 1.去重
+        if (!pending.add(key)) {
+            cacheMetrics.rebuildRejected(keyPrefix, "duplicate");
+            return false;
+        }
+        // 2.队列已满，放弃本次重建
+        if (queued.incrementAndGet() > queueCapacity) {
+            queued.decrementAndGet();
+            pending.remove(key);
+            cacheMetrics.rebuildRejected(keyPrefix, "full");
+            log.warn("缓存重建队列已满，放弃重建 {}", key);
+            return false;
+        }
+        // 3.按照访问频率排队，需要使用 execute，submit 包装以后的任务无法比较优先级
+        executor.execute(new RebuildTask(keyPrefix, key, task,
+                hotKeyDetector.estimateQps(key), sequence.incrementAndGet()));
+        return true;
+    }
+
+    private class RebuildTask implements Runnable, Comparable<RebuildTask> {
+        private final String keyPrefix;
+        private final String key;
+        private final Runnable task;
+        private final long frequency;
+        private final long seq;
+        private final long submitTime = System.nanoTime();
+
+        RebuildTask(String keyPrefix, String key, Runnable task, long frequency, long seq) {
+            this.keyPrefix = keyPrefix;
+            this.key = key;
+            this.task = task;
+            this.frequency = frequency;
+            this.seq = seq;
+        }
+
+        @Override
+        public void run() {
+            queued.decrementAndGet();
+            cacheMetrics.recordRebuildWait(keyPrefix, System.nanoTime() - submitTime);
+            try {
+                task.run();
+            } catch (Exception e) {
+                log.error("缓存 {} 重建失败", key, e);
+            } finally {
+                pending.remove(key);
+            }
+        }
+
+        @Override
+        public int compareTo(RebuildTask other) {
+            int c = Long.compare(other.frequency, frequency);
+            return c != 0 ? c : Long.compare(seq, other.seq);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.bean.copier.CopyOptions;
+import cn.hutool.core.util.ReflectUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
+
+/**
+ * 以 Hash 的形式缓存实体，每个字段一个 field，和 CacheClient 的字符串形式并存
+ * 1.只需要部分字段时用 HMGET 读取，不用解析整个对象
+ * 2.更新时只写入变化的字段，缓存不需要删除
+ * 空值用只有一个 _null 字段的 Hash 表示
+ */
+@Slf4j
+@Component
+public class HashCacheClient {
+
+    private static final String NULL_FIELD = "_null";
+
+    private static final DefaultRedisScript<Long> UPDATE_SCRIPT;
+
+    static {
+        UPDATE_SCRIPT = new DefaultRedisScript<>();
+        UPDATE_SCRIPT.setLocation(new ClassPathResource("hashUpdate.lua"));
+        UPDATE_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final CacheClient cacheClient;
+
+    public HashCacheClient(StringRedisTemplate stringRedisTemplate, CacheClient cacheClient) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.cacheClient = cacheClient;
+    }
+
+    /**
+     * 查询完整的对象，未命中时查询数据库并写入整个 Hash
+     */
+    public <R, ID> R query(
+            String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        // 布隆过滤器判断不存在，直接返回
+        if (!cacheClient.mightContain(keyPrefix, id)) {
+            return null;
+        }
+        // 1.查询整个 Hash
+        Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(key);
+        // 2.命中空值
+        if (entries.containsKey(NULL_FIELD)) {
+            return null;
+        }
+        // 3.命中，转为对象
+        if (!entries.isEmpty()) {
+            return BeanUtil.fillBeanWithMap(entries, ReflectUtil.newInstance(type), false);
+        }
+        // 4.未命中，查询数据库并写入
+        R r = dbFallback.apply(id);
+        write(key, r, time, unit);
+        return r;
+    }
+
+    /**
+     * 批量查询部分字段，所有的 HMGET 放在一个 pipeline 中，未命中的一次性查询数据库并写入完整的 Hash
+     * @param fields 需要的字段，返回的对象中只有这些字段有值
+     * @return id -> 数据，按照传入 ids 的顺序，不存在的 id 不包含在内
+     */
+    public <R, ID> Map<ID, R> queryFields(String keyPrefix, Collection<ID> ids, Class<R> type,
+                                          Function<Collection<ID>, Map<ID, R>> dbBatchFallback,
+                                          Long time, TimeUnit unit, String... fields) {
+        List<ID> candidates = ids.stream().distinct()
+                .filter(id -> cacheClient.mightContain(keyPrefix, id)).collect(Collectors.toList());
+        // 第一个字段查询 _null，用来区分空值和未命中
+        byte[][] rawFields = new byte[fields.length + 1][];
+        rawFields[0] = NULL_FIELD.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < fields.length; i++) {
+            rawFields[i + 1] = fields[i].getBytes(StandardCharsets.UTF_8);
+        }
+        // 1.一个 pipeline 执行所有的 HMGET
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (ID id : candidates) {
+                connection.hashCommands().hMGet((keyPrefix + id).getBytes(StandardCharsets.UTF_8), rawFields);
+            }
+            return null;
+        });
+        Map<ID, R> found = new HashMap<>(candidates.size());
+        List<ID> missingIds = new ArrayList<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            @SuppressWarnings("unchecked")
+            List<Object> values = (List<Object>) results.get(i);
+            if (values.get(0) != null) {
+                // 命中空值
+                continue;
+            }
+            Map<String, Object> projection = new HashMap<>(fields.length);
+            for (int j = 0; j < fields.length; j++) {
+                if (values.get(j + 1) != null) {
+                    projection.put(fields[j], values.get(j + 1));
+                }
+            }
+            if (projection.isEmpty()) {
+                missingIds.add(candidates.get(i));
+            } else {
+                found.put(candidates.get(i), BeanUtil.fillBeanWithMap(projection, ReflectUtil.newInstance(type), false));
+            }
+        }
+        // 2.未命中的一次性查询数据库，写入完整的 Hash，返回时只保留需要的字段
+        if (!missingIds.isEmpty()) {
+            Map<ID, R> loaded = dbBatchFallback.apply(missingIds);
+            for (ID id : missingIds) {
+                R r = loaded.get(id);
+                write(keyPrefix + id, r, time, unit);
+                if (r != null) {
+                    found.put(id, BeanUtil.copyProperties(r, type, ignoredFields(type, fields)));
+                }
+            }
+        }
+        // 3.按照传入的顺序返回
+        Map<ID, R> result = new LinkedHashMap<>(found.size());
+        for (ID id : ids) {
+            R r = found.get(id);
+            if (r != null) {
+                result.put(id, r);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 只更新变化的字段，缓存中不存在时不写入，下次查询时加载完整的数据
+     * @param value 包含变化字段的对象，值为 null 的字段不更新
+     * @return 缓存是否被更新
+     */
+    public boolean updateFields(String key, Object value) {
+        Map<String, String> fields = toHash(value);
+        if (fields.isEmpty()) {
+            return false;
+        }
+        List<String> args = new ArrayList<>(fields.size() * 2);
+        fields.forEach((field, v) -> {
+            args.add(field);
+            args.add(v);
+        });
+        Long updated = stringRedisTemplate.execute(UPDATE_SCRIPT, Collections.singletonList(key), args.toArray());
+        return updated != null && updated == 1;
+    }
+
+    public void delete(String key) {
+        stringRedisTemplate.delete(key);
+    }
+
+    // 写入完整的 Hash，不存在时写入空值
+    private void write(String key, Object value, Long time, TimeUnit unit) {
+        Map<String, String> hash = value == null ? Collections.singletonMap(NULL_FIELD, "1") : toHash(value);
+        long ttlMillis = value == null
+                ? cacheClient.jitterMillis(CACHE_NULL_TTL, TimeUnit.MINUTES) : cacheClient.jitterMillis(time, unit);
+        // 先删除再写入，保证不会和旧的字段混在一起
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+            connection.keyCommands().del(rawKey);
+            connection.hashCommands().hMSet(rawKey, toRaw(hash));
+            connection.keyCommands().pExpire(rawKey, ttlMillis);
+            return null;
+        });
+    }
+
+    // 对象转为 Hash，所有的值转为字符串，值为 null 的字段忽略
+    private Map<String, String> toHash(Object value) {
+        Map<String, Object> map = BeanUtil.beanToMap(value, new HashMap<>(), CopyOptions.create()
+                .setIgnoreNullValue(true)
+                .setFieldValueEditor((fieldName, fieldValue) -> fieldValue == null ? null : fieldValue.toString()));
+        Map<String, String> hash = new HashMap<>(map.size());
+        map.forEach((field, v) -> hash.put(field, (String) v));
+        return hash;
+    }
+
+    private Map<byte[], byte[]> toRaw(Map<String, String> hash) {
+        Map<byte[], byte[]> raw = new HashMap<>(hash.size());
+        hash.forEach((field, v) -> raw.put(field.getBytes(StandardCharsets.UTF_8), v.getBytes(StandardCharsets.UTF_8)));
+        return raw;
+    }
+
+    // 复制对象时忽略不需要的字段
+    private String[] ignoredFields(Class<?> type, String[] fields) {
+        Set<String> keep = new HashSet<>(Arrays.asList(fields));
+        return BeanUtil.getBeanDesc(type).getProps().stream()
+                .map(prop -> prop.getFieldName())
+                .filter(name -> !keep.contains(name))
+                .toArray(String[]::new);
+    }
+}
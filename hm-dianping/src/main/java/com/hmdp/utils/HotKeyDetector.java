@@ -0,0 +1,158 @@
+package com.hmdp.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * 本节点的热点 key 探测
+ * 按照采样率记录访问次数，用滑动窗口的 count-min sketch 估算每个 key 最近的 QPS：
+ * 窗口分成若干个槽，每个槽一个 sketch，超过阈值的 key 标记为热点，LocalCache 会在本地保存一份短期副本，
+ * 降到阈值一半以下时取消热点标记
+ */
+@Slf4j
+@Component
+public class HotKeyDetector {
+
+    // count-min sketch 的行数和每行的宽度（2 的幂）
+    private static final int DEPTH = 4;
+    private static final int WIDTH = 1 << 12;
+    private static final int[] SEEDS = {0x9E3779B1, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+    @Value("${hmdp.hotkey.threshold:1000}")
+    private int thresholdQps;
+    @Value("${hmdp.hotkey.sample-rate:16}")
+    private int sampleRate;
+    @Value("${hmdp.hotkey.window-seconds:10}")
+    private int windowSeconds;
+
+    // 每秒一个槽
+    private AtomicIntegerArray[] slots;
+    private volatile long currentSecond;
+
+    // 热点 key -> 最近一次估算的 QPS
+    private final Map<String, Long> hotKeys = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "hot-key-detector");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    private void init() {
+        slots = new AtomicIntegerArray[windowSeconds];
+        for (int i = 0; i < windowSeconds; i++) {
+            slots[i] = new AtomicIntegerArray(DEPTH * WIDTH);
+        }
+        currentSecond = System.currentTimeMillis() / 1000;
+        scheduler.scheduleAtFixedRate(this::rotate, 1, 1, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * 记录一次访问
+     * @return 当前是否为热点 key
+     */
+    public boolean record(String key) {
+        if (ThreadLocalRandom.current().nextInt(sampleRate) == 0) {
+            AtomicIntegerArray slot = slots[(int) (currentSecond % windowSeconds)];
+            int hash = key.hashCode();
+            for (int row = 0; row < DEPTH; row++) {
+                slot.incrementAndGet(row * WIDTH + index(hash, row));
+            }
+            if (!hotKeys.containsKey(key)) {
+                long qps = estimateQps(key);
+                if (qps >= thresholdQps) {
+                    hotKeys.put(key, qps);
+                    log.info("发现热点 key：{}，QPS 约 {}", key, qps);
+                }
+            }
+        }
+        return hotKeys.containsKey(key);
+    }
+
+    public boolean isHot(String key) {
+        return hotKeys.containsKey(key);
+    }
+
+    /**
+     * @return 当前的热点 key，按照 QPS 从高到低排列
+     */
+    public List<HotKey> hotKeys() {
+        List<HotKey> list = new ArrayList<>(hotKeys.size());
+        hotKeys.forEach((key, qps) -> list.add(new HotKey(key, qps)));
+        list.sort(Comparator.comparingLong(HotKey::getQps).reversed());
+        return list;
+    }
+
+    /**
+     * 估算窗口内的平均 QPS：每一行取窗口内的总数，再取所有行的最小值，没有热点的 key 也可以估算
+     */
+    public long estimateQps(String key) {
+        int hash = key.hashCode();
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            int column = row * WIDTH + index(hash, row);
+            long sum = 0;
+            for (AtomicIntegerArray slot : slots) {
+                sum += slot.get(column);
+            }
+            min = Math.min(min, sum);
+        }
+        return min * sampleRate / windowSeconds;
+    }
+
+    // 每秒切换到下一个槽并清空它，同时重新评估已有的热点 key，冷下来的取消标记
+    private void rotate() {
+        try {
+            long second = System.currentTimeMillis() / 1000;
+            AtomicIntegerArray next = slots[(int) (second % windowSeconds)];
+            for (int i = 0; i < next.length(); i++) {
+                next.set(i, 0);
+            }
+            currentSecond = second;
+            hotKeys.replaceAll((key, qps) -> estimateQps(key));
+            hotKeys.entrySet().removeIf(entry -> {
+                boolean cooled = entry.getValue() < thresholdQps / 2;
+                if (cooled) {
+                    log.info("热点 key {} 已降温，QPS 约 {}", entry.getKey(), entry.getValue());
+                }
+                return cooled;
+            });
+        } catch (Exception e) {
+            log.error("热点 key 统计异常", e);
+        }
+    }
+
+    private int index(int hash, int row) {
+        int h = hash * SEEDS[row];
+        return (h ^ (h >>> 16)) & (WIDTH - 1);
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class HotKey {
+        private String key;
+        private long qps;
+    }
+}
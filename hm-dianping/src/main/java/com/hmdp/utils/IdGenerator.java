@@ -0,0 +1,14 @@
+package com.hmdp.utils;
+
+/**
+ * 全局唯一 id 的生成器，默认使用 RedisIdWorker，hmdp.id.generator=snowflake 时使用 SnowflakeIdGenerator
+ */
+public interface IdGenerator {
+
+    /**
+     * 生成下一个 id
+     * @param keyPrefix 业务前缀，例如 order，不同业务的序列号互相独立（SnowflakeIdGenerator 不区分业务）
+     * @return 正数 id，同一个生成器生成的 id 按照时间大致递增
+     */
+    long nextId(String keyPrefix);
+}
@@ -0,0 +1,94 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.Cache;
+import cn.hutool.cache.CacheUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 进程内的一级缓存（L1），放在 Redis（L2）前面
+ * 每个 keyPrefix 是一个独立的区域，有自己的容量上限和过期时间；
+ * 没有注册的前缀只有被 HotKeyDetector 标记为热点的 key 才会在本地保存一份短期副本
+ */
+@Slf4j
+@Component
+public class LocalCache {
+
+    /**
+     * 代表数据库中不存在的空值，对应 Redis 中的 ""
+     */
+    public static final Object NULL_VALUE = new Object();
+
+    // keyPrefix -> 该前缀下的 LRU 缓存
+    private final Map<String, Cache<String, Object>> regions = new ConcurrentHashMap<>();
+
+    private final HotKeyDetector hotKeyDetector;
+
+    // 热点 key 的本地副本，过期时间很短，降温以后不再读写
+    private final Cache<String, Object> hotReplicas;
+
+    public LocalCache(HotKeyDetector hotKeyDetector,
+                      @Value("${hmdp.hotkey.local-size:10000}") int hotCapacity,
+                      @Value("${hmdp.hotkey.local-ttl-millis:1000}") long hotTtlMillis) {
+        this.hotKeyDetector = hotKeyDetector;
+        this.hotReplicas = CacheUtil.newLRUCache(hotCapacity, hotTtlMillis);
+    }
+
+    /**
+     * 注册一个本地缓存区域
+     * @param keyPrefix 缓存 key 的前缀，例如 cache:shop:
+     * @param capacity 最多缓存的条数，超过后按 LRU 淘汰
+     * @param time 本地缓存的过期时间
+     * @param unit 时间单位
+     */
+    public void register(String keyPrefix, int capacity, Long time, TimeUnit unit) {
+        regions.put(keyPrefix, CacheUtil.newLRUCache(capacity, unit.toMillis(time)));
+        log.debug("注册本地缓存区域 {}，容量 {}，过期时间 {} {}", keyPrefix, capacity, time, unit);
+    }
+
+    public Object get(String key) {
+        Cache<String, Object> region = regionOf(key);
+        if (region != null) {
+            // 读取时不更新最后访问时间，过期时间从写入时开始算，一直被读取的 key 丢失了失效通知也会按时过期
+            return region.get(key, false);
+        }
+        // 热点副本同样不更新最后访问时间，越热的 key 读得越多，否则短期副本永远不会过期
+        return hotKeyDetector.isHot(key) ? hotReplicas.get(key, false) : null;
+    }
+
+    public void put(String key, Object value) {
+        Cache<String, Object> region = regionOf(key);
+        if (region != null) {
+            region.put(key, value == null ? NULL_VALUE : value);
+        } else if (hotKeyDetector.isHot(key)) {
+            hotReplicas.put(key, value == null ? NULL_VALUE : value);
+        }
+    }
+
+    /**
+     * 只删除当前节点的本地缓存，其他节点通过 pub/sub 消息删除
+     */
+    public void invalidate(String key) {
+        Cache<String, Object> region = regionOf(key);
+        if (region != null) {
+            region.remove(key);
+        }
+        hotReplicas.remove(key);
+    }
+
+    // 找到 key 所属的区域，取最长的匹配前缀
+    private Cache<String, Object> regionOf(String key) {
+        String matched = null;
+        for (String prefix : regions.keySet()) {
+            if (key.startsWith(prefix) && (matched == null || prefix.length() > matched.length())) {
+                matched = prefix;
+            }
+        }
+        return matched == null ? null : regions.get(matched);
+    }
+}
@@ -0,0 +1,26 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 接口限流，由 RateLimitInterceptor 处理
+ * 每个维度一个令牌桶，速率和容量在 hmdp.rate-limit.{name} 下配置，没有配置的维度不限制：
+ * user-rate / user-burst：每个用户，ip-rate / ip-burst：每个 IP，resource-rate / resource-burst：每个资源（resource 指定的路径变量）
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RateLimit {
+
+    /**
+     * 限流的名称，对应配置 hmdp.rate-limit.{name}，同时是 Redis key 的一部分
+     */
+    String name();
+
+    /**
+     * 作为资源维度的路径变量，例如秒杀接口中的优惠券 id，为空时没有资源维度
+     */
+    String resource() default "";
+}
@@ -0,0 +1,74 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 处理 @RateLimit 注解的拦截器，放在登录拦截器之后，这时已经能拿到用户
+ */
+public class RateLimitInterceptor implements HandlerInterceptor {
+
+    private final RateLimiter rateLimiter;
+
+    // 可信的反向代理地址，只有从这些地址转发过来的请求才使用 X-Real-IP
+    private final Set<String> trustedProxies;
+
+    public RateLimitInterceptor(RateLimiter rateLimiter, String... trustedProxies) {
+        this.rateLimiter = rateLimiter;
+        this.trustedProxies = new HashSet<>(Arrays.asList(trustedProxies));
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        // 1.只处理带有 @RateLimit 的接口
+        if (!(handler instanceof HandlerMethod)) {
+            return true;
+        }
+        RateLimit rateLimit = ((HandlerMethod) handler).getMethodAnnotation(RateLimit.class);
+        if (rateLimit == null) {
+            return true;
+        }
+        // 2.各个维度的值
+        UserDTO user = UserHolder.getUser();
+        String resource = null;
+        if (StrUtil.isNotBlank(rateLimit.resource())) {
+            @SuppressWarnings("unchecked")
+            Map<String, String> variables =
+                    (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+            resource = variables == null ? null : variables.get(rateLimit.resource());
+        }
+        // 3.判断是否放行
+        if (rateLimiter.tryAcquire(rateLimit.name(), user == null ? null : user.getId(), clientIp(request), resource)) {
+            return true;
+        }
+        // 4.拒绝，返回 429
+        response.setStatus(429);
+        response.setContentType("application/json;charset=UTF-8");
+        response.getWriter().write(JSONUtil.toJsonStr(Result.fail("请求太频繁，请稍后再试！")));
+        return false;
+    }
+
+    // 经过可信的 nginx 转发时取 nginx 设置的 X-Real-IP，X-Forwarded-For 的内容客户端可以伪造，不能使用
+    private String clientIp(HttpServletRequest request) {
+        String remote = request.getRemoteAddr();
+        if (trustedProxies.contains(remote)) {
+            String realIp = request.getHeader("X-Real-IP");
+            if (StrUtil.isNotBlank(realIp)) {
+                return StrUtil.trim(realIp);
+            }
+        }
+        return remote;
+    }
+}
@@ -0,0 +1,150 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.Cache;
+import cn.hutool.cache.CacheUtil;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.RATE_LIMIT_KEY;
+
+/**
+ * 基于 Redis 令牌桶的限流，多个维度（用户、IP、资源）在一个 lua 脚本中原子地判断和扣减
+ * 本地预过滤：被 Redis 拒绝的维度在本地记录到下一个令牌生成为止，这段时间内的请求直接拒绝，不访问 Redis；
+ * 刷接口的用户大部分请求都会在本地被拒绝
+ */
+@Slf4j
+@Component
+public class RateLimiter {
+
+    public static final String USER = "user";
+    public static final String IP = "ip";
+    public static final String RESOURCE = "resource";
+
+    private static final DefaultRedisScript<List> RATE_LIMIT_SCRIPT;
+
+    static {
+        RATE_LIMIT_SCRIPT = new DefaultRedisScript<>();
+        RATE_LIMIT_SCRIPT.setLocation(new ClassPathResource("rateLimit.lua"));
+        RATE_LIMIT_SCRIPT.setResultType(List.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final Environment environment;
+
+    private final MeterRegistry registry;
+
+    // 被拒绝的令牌桶 key，过期时间是下一个令牌生成的时间
+    private final Cache<String, Boolean> blocked;
+
+    // name -> 各个维度的配置
+    private final Map<String, Limits> limits = new ConcurrentHashMap<>();
+
+    public RateLimiter(StringRedisTemplate stringRedisTemplate, Environment environment, MeterRegistry registry,
+                       @Value("${hmdp.rate-limit.local-size:100000}") int localSize) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.environment = environment;
+        this.registry = registry;
+        this.blocked = CacheUtil.newLRUCache(localSize);
+    }
+
+    /**
+     * 尝试获取一个令牌
+     * @param name 限流的名称
+     * @param userId 用户 id，未登录时为 null
+     * @param ip 客户端 IP
+     * @param resource 资源 id，没有资源维度时为 null
+     * @return 是否放行
+     */
+    public boolean tryAcquire(String name, Long userId, String ip, String resource) {
+        Limits config = limits.computeIfAbsent(name, Limits::new);
+        // 1.需要判断的令牌桶
+        List<String> dimensions = new ArrayList<>(3);
+        List<String> keys = new ArrayList<>(3);
+        List<String> args = new ArrayList<>(6);
+        addBucket(config, USER, userId, dimensions, keys, args);
+        addBucket(config, IP, ip, dimensions, keys, args);
+        addBucket(config, RESOURCE, resource, dimensions, keys, args);
+        if (keys.isEmpty()) {
+            return true;
+        }
+        // 2.本地预过滤
+        for (int i = 0; i < keys.size(); i++) {
+            if (blocked.get(keys.get(i), false) != null) {
+                rejected(name, dimensions.get(i), "local");
+                return false;
+            }
+        }
+        // 3.Redis 令牌桶
+        List<?> result;
+        try {
+            result = stringRedisTemplate.execute(RATE_LIMIT_SCRIPT, keys, args.toArray());
+        } catch (Exception e) {
+            // Redis 不可用时放行，限流不能影响正常的下单
+            log.error("限流 {} 访问 Redis 失败，放行", name, e);
+            return true;
+        }
+        int index = result == null ? 0 : ((Number) result.get(0)).intValue();
+        if (index == 0) {
+            return true;
+        }
+        // 4.记录到本地，下一个令牌生成之前不再访问 Redis
+        long waitMillis = ((Number) result.get(1)).longValue();
+        if (waitMillis > 0) {
+            blocked.put(keys.get(index - 1), Boolean.TRUE, waitMillis);
+        }
+        rejected(name, dimensions.get(index - 1), "redis");
+        return false;
+    }
+
+    private void addBucket(Limits config, String dimension, Object value,
+                           List<String> dimensions, List<String> keys, List<String> args) {
+        double[] limit = config.of(dimension);
+        if (value == null || limit == null) {
+            return;
+        }
+        dimensions.add(dimension);
+        keys.add(RATE_LIMIT_KEY + config.name + ":" + dimension + ":" + value);
+        args.add(String.valueOf(limit[0]));
+        args.add(String.valueOf(limit[1]));
+    }
+
+    private void rejected(String name, String dimension, String stage) {
+        registry.counter("rate.limit.rejected", "name", name, "dimension", dimension, "stage", stage).increment();
+    }
+
+    /**
+     * 一个限流名称下各个维度的速率和容量，速率没有配置或者不大于 0 的维度不限制，容量默认等于速率
+     */
+    private class Limits {
+        private final String name;
+        private final Map<String, double[]> byDimension = new ConcurrentHashMap<>();
+
+        Limits(String name) {
+            this.name = name;
+            for (String dimension : new String[]{USER, IP, RESOURCE}) {
+                String prefix = "hmdp.rate-limit." + name + "." + dimension;
+                double rate = environment.getProperty(prefix + "-rate", Double.class, 0D);
+                if (rate > 0) {
+                    double burst = environment.getProperty(prefix + "-burst", Double.class, rate);
+                    byDimension.put(dimension, new double[]{rate, Math.max(1, burst)});
+                }
+            }
+        }
+
+        double[] of(String dimension) {
+            return byDimension.get(dimension);
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+import static com.hmdp.utils.RedisConstants.BLOOM_FILTER_KEY;
+import static com.hmdp.utils.RedisConstants.BLOOM_SYNC_CHANNEL;
+
+/**
+ * 基于 Redis bitmap 的布隆过滤器，本地保存一份镜像
+ * 判断是否存在只查本地镜像，不访问 Redis；新增 id 时同时写本地和 Redis，并广播给其他节点
+ * 布隆过滤器不支持删除，数据被删除以后需要调用 rebuild 从数据库重建
+ * 重建期间新增的 id 会先记录下来，替换 bitmap 之前补写到新的 bitmap 中，避免被整体替换覆盖掉；
+ * 其他节点在替换之前写入旧 bitmap、通知又在替换之后才到达的 id 没有被记录，所以每个节点保留自己最近新增的 id，
+ * 收到重新加载的通知以后补写到 Redis 和本地镜像中
+ */
+@Slf4j
+public class RedisBloomFilter {
+
+    private final String name;
+    private final byte[] key;
+    private final StringRedisTemplate stringRedisTemplate;
+    // 从数据库加载所有 id，用来初始化和重建
+    private final Supplier<Collection<?>> idLoader;
+
+    // bit 数组的长度
+    private final long numBits;
+    // 哈希函数的个数
+    private final int numHashes;
+    // 本地镜像，每个 long 存 64 位
+    private volatile AtomicLongArray bits;
+    // 初始化完成之前本地镜像是空的，全部当作可能存在，避免误杀
+    private volatile boolean ready;
+    // 重建期间新增的 id，不在重建时为 null
+    private volatile Queue<Object> pendingAdds;
+    // 本节点最近新增的 id，重新加载以后补写；新增以后事务还没有提交时重建读不到这个 id，所以保留的时间要覆盖事务和重建的耗时
+    private static final long REPLAY_WINDOW_MILLIS = 60_000;
+    private final Deque<RecentAdd> recentAdds = new ConcurrentLinkedDeque<>();
+    // 新增 id 时加读锁，重建的最后替换 bitmap 时加写锁，保证新增的 id 要么被记录下来，要么写在新的 bitmap 上
+    private final ReadWriteLock rebuildLock = new ReentrantReadWriteLock();
+
+    /**
+     * @param name 过滤器名称，例如 shop
+     * @param expectedInsertions 预计插入的元素个数
+     * @param fpp 期望的误判率
+     */
+    public RedisBloomFilter(String name, long expectedInsertions, double fpp,
+                            StringRedisTemplate stringRedisTemplate, Supplier<Collection<?>> idLoader) {
+        this.name = name;
+        this.key = (BLOOM_FILTER_KEY + name).getBytes(StandardCharsets.UTF_8);
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.idLoader = idLoader;
+        // m = -n * ln(p) / (ln2)^2，向上取整到 64 的倍数
+        long m = (long) (-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        this.numBits = Math.max(64, (m + 63) / 64 * 64);
+        // k = m / n * ln2
+        this.numHashes = Math.max(1, (int) Math.round((double) numBits / expectedInsertions * Math.log(2)));
+        this.bits = new AtomicLongArray((int) (numBits / 64));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 返回 false 说明一定不存在，返回 true 说明可能存在
+     */
+    public boolean mightContain(Object id) {
+        if (!ready) {
+            return true;
+        }
+        AtomicLongArray current = bits;
+        for (long index : indexes(id)) {
+            if ((current.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 新增一个 id，写入本地镜像和 Redis，并通知其他节点
+     */
+    public void add(Object id) {
+        long[] indexes = indexes(id);
+        recordRecent(id);
+        rebuildLock.readLock().lock();
+        try {
+            recordPending(id);
+            addLocal(indexes);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                RedisStringCommands commands = connection.stringCommands();
+                for (long index : indexes) {
+                    commands.setBit(key, index, true);
+                }
+                return null;
+            });
+        } finally {
+            rebuildLock.readLock().unlock();
+        }
+        stringRedisTemplate.convertAndSend(BLOOM_SYNC_CHANNEL, "add:" + name + ":" + id);
+    }
+
+    /**
+     * 其他节点新增了 id，只需要更新本地镜像
+     */
+    public void addLocal(Object id) {
+        rebuildLock.readLock().lock();
+        try {
+            // 其他节点写入的是重建前的 bitmap，也需要补写
+            recordPending(id);
+            addLocal(indexes(id));
+        } finally {
+            rebuildLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 启动时调用：Redis 中已有大小一致的 bitmap 就直接加载，否则从数据库重建
+     */
+    public void init() {
+        if (!reloadLocal()) {
+            rebuild();
+        }
+    }
+
+    /**
+     * 从数据库重新加载所有 id，整体替换 Redis 中的 bitmap，然后通知其他节点重新加载
+     */
+    public synchronized void rebuild() {
+        // 1.开始记录重建期间新增的 id
+        Queue<Object> pending = new ConcurrentLinkedQueue<>();
+        pendingAdds = pending;
+        try {
+            // 2.从数据库加载，构建新的 bitmap
+            Collection<?> ids = idLoader.get();
+            AtomicLongArray fresh = new AtomicLongArray((int) (numBits / 64));
+            for (Object id : ids) {
+                addTo(fresh, indexes(id));
+            }
+            // 3.替换期间暂停新增，把记录下来的 id 补写到新的 bitmap 中
+            rebuildLock.writeLock().lock();
+            try {
+                for (Object id : pending) {
+                    addTo(fresh, indexes(id));
+                }
+                for (RecentAdd recent : recentAdds) {
+                    addTo(fresh, indexes(recent.id));
+                }
+                // 先写临时 key 再 rename，避免重建过程中其他节点读到一半的数据
+                byte[] tmpKey = (new String(key, StandardCharsets.UTF_8) + ":tmp").getBytes(StandardCharsets.UTF_8);
+                byte[] bytes = toRedisBytes(fresh);
+                stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+                    connection.stringCommands().set(tmpKey, bytes);
+                    connection.keyCommands().rename(tmpKey, key);
+                    return null;
+                });
+                bits = fresh;
+                ready = true;
+            } finally {
+                rebuildLock.writeLock().unlock();
+            }
+            stringRedisTemplate.convertAndSend(BLOOM_SYNC_CHANNEL, "reload:" + name);
+            log.info("布隆过滤器 {} 重建完成，元素 {} 个，重建期间新增 {} 个，{} 位，{} 个哈希函数",
+                    name, ids.size(), pending.size(), numBits, numHashes);
+        } finally {
+            pendingAdds = null;
+        }
+    }
+
+    /**
+     * 其他节点重建完成以后调用：重新加载 bitmap，再把本节点最近新增的 id 补写到 Redis 和本地镜像中，
+     * 这些 id 可能写在了被替换掉的旧 bitmap 上
+     */
+    public void reloadAndReplay() {
+        if (!reloadLocal()) {
+            return;
+        }
+        List<Object> ids = new ArrayList<>();
+        for (RecentAdd recent : recentAdds) {
+            ids.add(recent.id);
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            RedisStringCommands commands = connection.stringCommands();
+            for (Object id : ids) {
+                long[] indexes = indexes(id);
+                addLocal(indexes);
+                for (long index : indexes) {
+                    commands.setBit(key, index, true);
+                }
+            }
+            return null;
+        });
+        log.info("布隆过滤器 {} 重新加载，补写本节点最近新增的 {} 个 id", name, ids.size());
+    }
+
+    /**
+     * 从 Redis 加载 bitmap 到本地镜像
+     * @return Redis 中不存在或者大小不一致时返回 false
+     */
+    public boolean reloadLocal() {
+        byte[] bytes = stringRedisTemplate.execute(
+                (RedisCallback<byte[]>) connection -> connection.stringCommands().get(key));
+        if (bytes == null || bytes.length != numBits / 8) {
+            return false;
+        }
+        AtomicLongArray loaded = new AtomicLongArray((int) (numBits / 64));
+        for (int i = 0; i < bytes.length; i++) {
+            for (int bit = 0; bit < 8; bit++) {
+                // Redis 的 bitmap 中每个字节的最高位是偏移量最小的位
+                if ((bytes[i] & (0x80 >>> bit)) != 0) {
+                    long index = (long) i * 8 + bit;
+                    loaded.accumulateAndGet((int) (index >>> 6), 1L << index, (a, b) -> a | b);
+                }
+            }
+        }
+        bits = loaded;
+        ready = true;
+        return true;
+    }
+
+    private void addLocal(long[] indexes) {
+        addTo(bits, indexes);
+    }
+
+    private void recordPending(Object id) {
+        Queue<Object> pending = pendingAdds;
+        if (pending != null) {
+            pending.add(id);
+        }
+    }
+
+    // 记录本节点新增的 id，同时清理超过保留时间的记录
+    private void recordRecent(Object id) {
+        long now = System.currentTimeMillis();
+        recentAdds.addLast(new RecentAdd(now, id));
+        RecentAdd head;
+        while ((head = recentAdds.peekFirst()) != null && head.time < now - REPLAY_WINDOW_MILLIS) {
+            recentAdds.remove(head);
+        }
+    }
+
+    private static void addTo(AtomicLongArray array, long[] indexes) {
+        for (long index : indexes) {
+            array.accumulateAndGet((int) (index >>> 6), 1L << index, (a, b) -> a | b);
+        }
+    }
+
+    private byte[] toRedisBytes(AtomicLongArray array) {
+        byte[] bytes = new byte[(int) (numBits / 8)];
+        for (long index = 0; index < numBits; index++) {
+            if ((array.get((int) (index >>> 6)) & (1L << index)) != 0) {
+                bytes[(int) (index >>> 3)] |= (byte) (0x80 >>> (index & 7));
+            }
+        }
+        return bytes;
+    }
+
+    // 用 128 位 murmur 的两半做双重哈希，得到 k 个位置
+    private long[] indexes(Object id) {
+        long[] hash = MurmurHash.hash128(String.valueOf(id).getBytes(StandardCharsets.UTF_8));
+        long[] indexes = new long[numHashes];
+        long combined = hash[0];
+        for (int i = 0; i < numHashes; i++) {
+            indexes[i] = (combined & Long.MAX_VALUE) % numBits;
+            combined += hash[1];
+        }
+        return indexes;
+    }
+
+    private static class RecentAdd {
+        private final long time;
+        private final Object id;
+
+        RecentAdd(long time, Object id) {
+            this.time = time;
+            this.id = id;
+        }
+    }
+}
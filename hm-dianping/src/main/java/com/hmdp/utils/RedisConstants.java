@@ -7,19 +7,58 @@ public class RedisConstants {
     public static final Long LOGIN_USER_TTL = 30L;
 
     public static final Long CACHE_NULL_TTL = 2L;
+    // 提前刷新（XFetch）的系数，越大越倾向于提前刷新
+    public static final double CACHE_EARLY_REFRESH_BETA = 1.0;
 
     public static final Long CACHE_SHOP_TTL = 30L;
+    // 软过期 + 硬过期时，CACHE_SHOP_TTL 作为软过期，这个作为硬过期
+    public static final Long CACHE_SHOP_HARD_TTL = 60L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
+    // Hash 形式的店铺缓存，不能以 CACHE_SHOP_KEY 开头，否则会匹配到字符串形式的本地缓存和编码配置
+    public static final String CACHE_SHOP_HASH_KEY = "cache:shop-hash:";
+    // 本地缓存（L1）的容量和过期时间（秒）
+    public static final int CACHE_SHOP_LOCAL_SIZE = 1000;
+    public static final Long CACHE_SHOP_LOCAL_TTL = 60L;
+
+    // 本地缓存失效通知的频道
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+
+    public static final String CACHE_USER_KEY = "cache:user:";
+    public static final Long CACHE_USER_TTL = 30L;
 
     public static final String CACHE_SHOPTYPE_KEY = "cache:shopType:";
     public static final Long CACHE_SHOPTYPE_TTL = 30L;
 
     public static final String BLOG_LIKED = "blog:liked:";
 
+    // 布隆过滤器的 bitmap key 前缀，以及同步本地镜像的频道
+    public static final String BLOOM_FILTER_KEY = "bloom:";
+    public static final String BLOOM_SYNC_CHANNEL = "bloom:sync";
+
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
+    // 缓存重建的互斥锁：lock: + 缓存 key，不同类型的缓存 id 相同时不会抢同一把锁
+    public static final String CACHE_LOCK_KEY = "lock:";
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    // 分片库存的分片数，以及每个分片的已下单用户集合
+    public static final String SECKILL_STOCK_SHARDS_KEY = "seckill:shards:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    // 秒杀订单的消息队列，按照用户 id 分区，每个分区一个 stream：stream.orders:0、stream.orders:1 ...
+    public static final String SECKILL_ORDER_STREAM = "stream.orders:";
+    // 分区之前的订单 stream，升级以后启动时处理完其中剩下的订单
+    public static final String SECKILL_ORDER_LEGACY_STREAM = "stream.orders";
+    public static final String SECKILL_ORDER_GROUP = "g1";
+    // 广播秒杀券售罄和补充库存的频道
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:soldout";
+
+    // 接口限流的令牌桶：limit:{name}:{维度}:{值}
+    public static final String RATE_LIMIT_KEY = "limit:";
+
+    // SnowflakeIdGenerator 的 worker id 租约，以及每个 worker 最后使用的时间戳
+    public static final String ID_WORKER_KEY = "id:worker:";
+    public static final String ID_WORKER_TIME_KEY = "id:worker:time:";
+    public static final Long ID_WORKER_TTL = 30L;
 
     public static final String FOLLOWS_ID = "follow:";
 
@@ -8,4 +8,6 @@ import java.time.LocalDateTime;
 public class RedisData {
     private LocalDateTime expireTime;
     private Object data;
+    // 上一次重建缓存花费的时间（毫秒），提前刷新时使用
+    private long recomputeMillis;
 }
@@ -1,14 +1,30 @@
 package com.hmdp.utils;
 
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * 全局唯一 id：31 位时间戳（秒） + 32 位序列号，序列号每天从 1 开始
+ * segment-size 大于 0 时使用号段模式：每次从 Redis 预支一段序列号（INCRBY segment-size），在本地分配，
+ * 用到 prefetch-ratio 时在后台预支下一段，正常情况下生成 id 不访问 Redis；
+ * 号段只在当天有效，跨天以后丢弃，不同节点拿到的号段不重叠，所以 id 仍然唯一，并且按照时间戳大致有序
+ */
+@Slf4j
 @Component
-public class RedisIdWorker {
+public class RedisIdWorker implements IdGenerator {
     /**
      * 开始时间戳
      */
@@ -18,25 +34,181 @@ public class RedisIdWorker {
      */
     private static final int COUNT_BITS = 32;
 
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+
     private StringRedisTemplate stringRedisTemplate;
 
+    // 每个号段的大小，为 0 时每个 id 访问一次 Redis
+    @Value("${hmdp.id.segment-size:0}")
+    private int segmentSize;
+
+    // 当前号段用到这个比例时预支下一段
+    @Value("${hmdp.id.prefetch-ratio:0.8}")
+    private double prefetchRatio;
+
+    // 当天的日期，跨天时才重新格式化
+    private volatile CachedDate cachedDate = new CachedDate(-1, null);
+
+    // keyPrefix -> 号段
+    private final Map<String, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+
+    private final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "id-segment-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     public RedisIdWorker(StringRedisTemplate stringRedisTemplate) {
         this.stringRedisTemplate = stringRedisTemplate;
     }
 
+    @PreDestroy
+    private void destroy() {
+        prefetchExecutor.shutdownNow();
+    }
+
+    @Override
     public long nextId(String keyPrefix) {
         // 1.生成时间戳
         LocalDateTime now = LocalDateTime.now();
-        long nowSecond = now.toEpochSecond(ZoneOffset.UTC);
-        long timestamp = nowSecond - BEGIN_TIMESTAMP;
+        long timestamp = timestampOf(now);
 
         // 2.生成序列号
         // 2.1.获取当前日期，精确到天
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
-        // 2.2.自增长
-        long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
+        String date = dateOf(now);
+        // 2.2.自增长，号段模式在本地分配
+        long count = segmentSize > 0
+                ? buffers.computeIfAbsent(keyPrefix, SegmentBuffer::new).next(date)
+                : stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
 
         // 3.拼接并返回
+        return compose(timestamp, count);
+    }
+
+    /**
+     * 序列号由 lua 脚本分配时使用：当前时间对应的计数器 key，脚本 INCR 这个 key 得到序列号
+     */
+    public String counterKey(String keyPrefix, LocalDateTime now) {
+        return "icr:" + keyPrefix + ":" + dateOf(now);
+    }
+
+    public static long timestampOf(LocalDateTime now) {
+        return now.toEpochSecond(ZoneOffset.UTC) - BEGIN_TIMESTAMP;
+    }
+
+    // 时间戳和序列号拼接成 id
+    public static long compose(long timestamp, long count) {
         return timestamp << COUNT_BITS | count;
     }
+
+    private String dateOf(LocalDateTime now) {
+        long day = now.toLocalDate().toEpochDay();
+        CachedDate cached = cachedDate;
+        if (cached.day != day) {
+            cached = new CachedDate(day, now.format(DATE_FORMATTER));
+            cachedDate = cached;
+        }
+        return cached.date;
+    }
+
+    private static class CachedDate {
+        private final long day;
+        private final String date;
+
+        CachedDate(long day, String date) {
+            this.day = day;
+            this.date = date;
+        }
+    }
+
+    /**
+     * 一段序列号 (end - size, end]，next 记录已经分配到的位置
+     */
+    private static class Segment {
+        private final String date;
+        private final long end;
+        private final long prefetchAt;
+        private final AtomicLong next;
+
+        Segment(String date, long end, long size, double prefetchRatio) {
+            this.date = date;
+            this.end = end;
+            this.next = new AtomicLong(end - size);
+            this.prefetchAt = end - size + Math.max(1, (long) (size * prefetchRatio));
+        }
+    }
+
+    private class SegmentBuffer {
+        private final String keyPrefix;
+        private volatile Segment current;
+        // 后台预支好的下一段
+        private volatile Segment prefetched;
+        private final AtomicBoolean prefetching = new AtomicBoolean();
+
+        SegmentBuffer(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
+
+        long next(String date) {
+            while (true) {
+                Segment segment = current;
+                if (segment != null && segment.date.equals(date)) {
+                    // 1.无锁分配
+                    long value = segment.next.incrementAndGet();
+                    if (value <= segment.end) {
+                        // 2.用到预支的位置，后台预支下一段，只有一个线程会正好拿到这个值
+                        if (value == segment.prefetchAt) {
+                            prefetch(date);
+                        }
+                        return value;
+                    }
+                }
+                // 3.当前号段用完或者已经跨天，切换到下一段
+                switchSegment(segment, date);
+            }
+        }
+
+        private synchronized void switchSegment(Segment used, String date) {
+            // 其他线程已经切换过了
+            if (current != used) {
+                return;
+            }
+            Segment next = prefetched;
+            prefetched = null;
+            // 预支的号段还没有回来或者已经跨天，同步预支；
+            // 预支比同步预支先执行 INCRBY、后写回时，拿到的号段比当前的小，直接丢弃，保证 id 递增
+            boolean usable = next != null && next.date.equals(date)
+                    && (used == null || !used.date.equals(date) || next.end > used.end);
+            current = usable ? next : load(date);
+        }
+
+        private void prefetch(String date) {
+            if (!prefetching.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                prefetchExecutor.execute(() -> {
+                    try {
+                        prefetched = load(date);
+                    } catch (Exception e) {
+                        // 失败时等当前号段用完以后再同步预支
+                        log.error("预支 {} 的 id 号段失败", keyPrefix, e);
+                    } finally {
+                        prefetching.set(false);
+                    }
+                });
+            } catch (Exception e) {
+                prefetching.set(false);
+                throw e;
+            }
+        }
+
+        private Segment load(String date) {
+            Long end = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date, segmentSize);
+            if (end == null) {
+                throw new IllegalStateException("预支 id 号段失败：" + keyPrefix);
+            }
+            return new Segment(date, end, segmentSize, prefetchRatio);
+        }
+    }
 }
@@ -0,0 +1,52 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 秒杀订单消费者的监控指标，和 CacheMetrics 一样通过 /actuator/prometheus 暴露
+ */
+@Component
+public class SeckillMetrics {
+
+    private final MeterRegistry registry;
+
+    public SeckillMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    // 正在运行的消费者个数
+    public void gaugeConsumers(AtomicInteger running) {
+        registry.gauge("seckill.order.consumers", running);
+    }
+
+    /**
+     * 每个消费者的延迟：最近处理的订单从写入 stream 到处理完成的毫秒数，队列为空时为 0
+     */
+    public void gaugeLag(String consumer, String partition, AtomicLong lagMillis) {
+        Gauge.builder("seckill.order.consumer.lag", lagMillis, AtomicLong::get)
+                .baseUnit("milliseconds")
+                .tag("consumer", consumer)
+                .tag("partition", partition)
+                .register(registry);
+    }
+
+    // 每个消费者已经读取、还没有 ACK 的订单数，采集时才查询 Redis
+    public void gaugePending(String consumer, String partition, Supplier<Number> pending) {
+        Gauge.builder("seckill.order.consumer.pending", pending)
+                .tag("consumer", consumer)
+                .tag("partition", partition)
+                .register(registry);
+    }
+
+    // 处理成功和失败的订单数，批量处理时按照一批的条数累加
+    public void processed(String partition, boolean success, int count) {
+        registry.counter("seckill.order.processed", "partition", partition,
+                "result", success ? "success" : "failure").increment(count);
+    }
+}
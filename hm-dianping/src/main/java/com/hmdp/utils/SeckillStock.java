@@ -0,0 +1,141 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀库存在 Redis 中的存放方式
+ * 普通的优惠券只有一个库存 key：seckill:stock:{voucherId}；
+ * 开启分片以后库存平均拆到 K 个 key：seckill:stock:{voucherId:i}，每个分片有自己的已下单用户集合 seckill:order:{voucherId:i}，
+ * 同一个分片的库存和集合使用相同的 hash tag，在 Redis Cluster 中属于同一个 slot；
+ * 用户固定属于 userId % K 这个分片，一人一单只在这个分片的集合中判断，所以跨分片仍然是精确的
+ * 下单时每个脚本只访问一个分片，不同用户的请求落在不同的 key 上，分片可以分散到集群的不同节点
+ * 分片数和本地记录的已经扣完的分片有过期时间，补充库存的广播到达时立即清除，重新分片以后最多一个过期时间内生效
+ */
+@Component
+public class SeckillStock {
+
+    // 新建秒杀券时的分片数，为 1 时不分片
+    @Value("${hmdp.seckill.stock-shards:1}")
+    private int defaultShards;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final long ttlMillis;
+
+    // 优惠券 id -> 分片信息
+    private final Map<Long, Shards> shards = new ConcurrentHashMap<>();
+
+    public SeckillStock(StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer container,
+                        @Value("${hmdp.seckill.shards-ttl-seconds:60}") long ttlSeconds) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+        // 和 SoldOutFlags 共用频道，补充库存（clear:{voucherId}）时重新读取分片数，清除扣完的分片
+        container.addMessageListener((message, pattern) -> {
+            String[] parts = new String(message.getBody(), StandardCharsets.UTF_8).split(":", 2);
+            if ("clear".equals(parts[0])) {
+                shards.remove(Long.valueOf(parts[1]));
+            }
+        }, new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL));
+    }
+
+    /**
+     * @return 优惠券的库存分片数，没有分片的返回 1
+     */
+    public int shardsOf(Long voucherId) {
+        return shardInfo(voucherId).count;
+    }
+
+    // 用户所属的分片
+    public int homeShard(Long userId, int shardCount) {
+        return Math.floorMod(userId.hashCode(), shardCount);
+    }
+
+    /**
+     * @return 本节点是否已经知道这个分片的库存扣完了，下单时跳过，不再访问 Redis
+     */
+    public boolean isDrained(Long voucherId, int shard) {
+        return shardInfo(voucherId).drained.contains(shard);
+    }
+
+    public void markDrained(Long voucherId, int shard) {
+        shardInfo(voucherId).drained.add(shard);
+    }
+
+    public String stockKey(Long voucherId, int shard) {
+        return SECKILL_STOCK_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    public String orderKey(Long voucherId, int shard) {
+        return SECKILL_ORDER_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    /**
+     * 新建秒杀券时写入库存，分片数使用当前的配置
+     */
+    public void init(Long voucherId, int stock) {
+        if (defaultShards > 1) {
+            stringRedisTemplate.opsForValue().set(SECKILL_STOCK_SHARDS_KEY + voucherId, String.valueOf(defaultShards));
+        }
+        shards.put(voucherId, new Shards(Math.max(defaultShards, 1), System.currentTimeMillis() + ttlMillis));
+        set(voucherId, stock);
+    }
+
+    /**
+     * 重新设置库存，已经分片的按照 Redis 中当前的分片数平均拆分，余数放在前面的分片
+     */
+    public void set(Long voucherId, int stock) {
+        shards.remove(voucherId);
+        int count = shardsOf(voucherId);
+        if (count == 1) {
+            stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucherId, String.valueOf(stock));
+            return;
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            RedisStringCommands commands = connection.stringCommands();
+            for (int i = 0; i < count; i++) {
+                int share = stock / count + (i < stock % count ? 1 : 0);
+                commands.set(stockKey(voucherId, i).getBytes(StandardCharsets.UTF_8),
+                        String.valueOf(share).getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+    }
+
+    private Shards shardInfo(Long voucherId) {
+        Shards info = shards.get(voucherId);
+        if (info != null && info.expireAt >= System.currentTimeMillis()) {
+            return info;
+        }
+        String value = stringRedisTemplate.opsForValue().get(SECKILL_STOCK_SHARDS_KEY + voucherId);
+        Shards loaded = new Shards(value == null ? 1 : Integer.parseInt(value), System.currentTimeMillis() + ttlMillis);
+        shards.put(voucherId, loaded);
+        return loaded;
+    }
+
+    private static class Shards {
+        private final int count;
+        // 过期时间（毫秒）
+        private final long expireAt;
+        // 本节点已经知道扣完的分片
+        private final Set<Integer> drained = ConcurrentHashMap.newKeySet();
+
+        Shards(int count, long expireAt) {
+            this.count = count;
+            this.expireAt = expireAt;
+        }
+    }
+}
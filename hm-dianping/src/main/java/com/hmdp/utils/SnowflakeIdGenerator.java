@@ -0,0 +1,188 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 雪花算法的 id 生成器：41 位毫秒时间戳 + 10 位 worker id + 12 位毫秒内序列号，生成 id 完全在本地，不访问网络
+ * 1.worker id 在启动时从 Redis 租用（SET NX EX），后台定时续期，超过租约时间没有续期成功就停止生成，避免和接手的节点重复
+ * 2.每个 worker 最后使用的时间戳保存在 Redis 中，重新租到这个 worker id 时从这个时间之后开始，重启后时钟回拨也不会重复
+ * 3.运行中时钟回拨不超过 max-backward-millis 时继续在上一次的毫秒上递增序列号，超过时抛出异常
+ * 生成的 id 和 RedisIdWorker 的格式不同，切换之前需要确认两种 id 不会写入同一张表
+ */
+@Slf4j
+@Primary
+@Component
+@ConditionalOnProperty(name = "hmdp.id.generator", havingValue = "snowflake")
+public class SnowflakeIdGenerator implements IdGenerator {
+
+    /**
+     * 开始时间戳（毫秒），和 RedisIdWorker 一样从 2022-01-01 开始
+     */
+    private static final long BEGIN_MILLIS = 1640995200000L;
+
+    private static final int WORKER_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long MAX_WORKER_ID = (1L << WORKER_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT;
+
+    static {
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("workerRenew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+        RELEASE_SCRIPT = new DefaultRedisScript<>();
+        RELEASE_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        RELEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    @Value("${hmdp.id.max-backward-millis:1000}")
+    private long maxBackwardMillis;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    // 当前毫秒时间，测试时替换成可以控制的时钟
+    private LongSupplier clock = System::currentTimeMillis;
+
+    // 租约中保存的持有者标示
+    private final String owner = UUID.randomUUID().toString(true);
+
+    private volatile long workerId;
+
+    // 租约的本地截止时间，超过以后不再生成 id
+    private volatile long leaseDeadline;
+
+    // 上一次生成 id 的状态：(毫秒时间戳 - BEGIN_MILLIS) << SEQUENCE_BITS | 序列号
+    private final AtomicLong state = new AtomicLong();
+
+    // 续期的间隔，租约的三分之一
+    private static final long RENEW_PERIOD_MILLIS = TimeUnit.SECONDS.toMillis(ID_WORKER_TTL) / 3;
+
+    // 本地认为租约有效的时长，比 Redis 的过期时间少一个续期间隔，
+    // 续期失败时本地先停止生成，留出时钟误差和 GC 停顿的余量，Redis 中的租约过期之前就不再使用这个 worker id
+    private static final long LEASE_MILLIS = TimeUnit.SECONDS.toMillis(ID_WORKER_TTL) - RENEW_PERIOD_MILLIS;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "id-worker-lease");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public SnowflakeIdGenerator(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    @PostConstruct
+    private void init() {
+        acquire();
+        scheduler.scheduleWithFixedDelay(this::renew, RENEW_PERIOD_MILLIS, RENEW_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        scheduler.shutdownNow();
+        try {
+            saveLastTime();
+            stringRedisTemplate.execute(RELEASE_SCRIPT, Collections.singletonList(ID_WORKER_KEY + workerId), owner);
+        } catch (Exception e) {
+            log.warn("释放 worker id {} 失败，等待租约过期", workerId, e);
+        }
+    }
+
+    @Override
+    public long nextId(String keyPrefix) {
+        if (clock.getAsLong() > leaseDeadline) {
+            throw new IllegalStateException("worker id " + workerId + " 的租约已经过期，暂停生成 id");
+        }
+        while (true) {
+            long last = state.get();
+            long lastMillis = last >>> SEQUENCE_BITS;
+            long now = clock.getAsLong() - BEGIN_MILLIS;
+            long next;
+            if (now > lastMillis) {
+                // 1.进入新的一毫秒，序列号从 0 开始
+                next = now << SEQUENCE_BITS;
+            } else if (lastMillis - now <= maxBackwardMillis) {
+                // 2.同一毫秒内，或者时钟回拨了一点：在上一次的毫秒上递增序列号，序列号用完时进位到下一毫秒
+                next = last + 1;
+            } else {
+                // 3.回拨太多
+                throw new IllegalStateException("时钟回拨了 " + (lastMillis - now) + " ms，暂停生成 id");
+            }
+            if (state.compareAndSet(last, next)) {
+                return (next >>> SEQUENCE_BITS) << (WORKER_BITS + SEQUENCE_BITS)
+                        | workerId << SEQUENCE_BITS
+                        | (next & SEQUENCE_MASK);
+            }
+        }
+    }
+
+    // 从随机位置开始依次尝试，租到一个没有被使用的 worker id
+    private void acquire() {
+        long start = ThreadLocalRandom.current().nextLong(MAX_WORKER_ID + 1);
+        for (long i = 0; i <= MAX_WORKER_ID; i++) {
+            long id = (start + i) & MAX_WORKER_ID;
+            long begin = clock.getAsLong();
+            Boolean success = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(ID_WORKER_KEY + id, owner, ID_WORKER_TTL, TimeUnit.SECONDS);
+            if (Boolean.TRUE.equals(success)) {
+                workerId = id;
+                leaseDeadline = begin + LEASE_MILLIS;
+                // 上一个使用这个 worker id 的节点最后的时间戳，从它之后开始
+                String lastTime = stringRedisTemplate.opsForValue().get(ID_WORKER_TIME_KEY + id);
+                if (lastTime != null) {
+                    long floor = Long.parseLong(lastTime) << SEQUENCE_BITS | SEQUENCE_MASK;
+                    state.accumulateAndGet(floor, Math::max);
+                }
+                log.info("租用 worker id {}", id);
+                return;
+            }
+        }
+        throw new IllegalStateException("没有可用的 worker id");
+    }
+
+    // 续期租约，同时保存最后使用的时间戳；租约已经被别人拿走时重新租用
+    private void renew() {
+        try {
+            long begin = clock.getAsLong();
+            Long renewed = stringRedisTemplate.execute(RENEW_SCRIPT, Collections.singletonList(ID_WORKER_KEY + workerId),
+                    owner, String.valueOf(ID_WORKER_TTL));
+            if (renewed != null && renewed == 1) {
+                leaseDeadline = begin + LEASE_MILLIS;
+                saveLastTime();
+                return;
+            }
+            log.error("worker id {} 的租约已经丢失，重新租用", workerId);
+            leaseDeadline = 0;
+            acquire();
+        } catch (Exception e) {
+            log.error("worker id {} 续期失败", workerId, e);
+        }
+    }
+
+    private void saveLastTime() {
+        stringRedisTemplate.opsForValue().set(ID_WORKER_TIME_KEY + workerId,
+                String.valueOf(state.get() >>> SEQUENCE_BITS));
+    }
+}
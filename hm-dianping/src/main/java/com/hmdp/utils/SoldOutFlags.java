@@ -0,0 +1,85 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+
+/**
+ * 秒杀券的本地售罄标记
+ * 库存扣完以后剩下的请求全部在本地直接拒绝，不再执行 lua 脚本；标记通过 pub/sub 广播给所有节点，补充库存时清除
+ * 标记有过期时间，过期以后放一个请求去 Redis 重新判断，丢失了清除消息的节点也能自己恢复
+ */
+@Slf4j
+@Component
+public class SoldOutFlags {
+
+    // 优惠券 id -> 标记的过期时间（毫秒）
+    private final Map<Long, Long> soldOut = new ConcurrentHashMap<>();
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final long ttlMillis;
+
+    public SoldOutFlags(StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer container,
+                        @Value("${hmdp.seckill.sold-out-ttl-seconds:60}") long ttlSeconds) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+        // 消息格式：soldOut:{voucherId} 或者 clear:{voucherId}
+        container.addMessageListener((message, pattern) -> {
+            String[] parts = new String(message.getBody(), StandardCharsets.UTF_8).split(":", 2);
+            Long voucherId = Long.valueOf(parts[1]);
+            if ("soldOut".equals(parts[0])) {
+                markLocal(voucherId);
+            } else if ("clear".equals(parts[0])) {
+                soldOut.remove(voucherId);
+            }
+        }, new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL));
+    }
+
+    public boolean isSoldOut(Long voucherId) {
+        Long expireAt = soldOut.get(voucherId);
+        if (expireAt == null) {
+            return false;
+        }
+        if (expireAt < System.currentTimeMillis()) {
+            soldOut.remove(voucherId, expireAt);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 标记为售罄，并通知其他节点
+     */
+    public void markSoldOut(Long voucherId) {
+        // 本节点已经标记过，其他节点也已经收到过通知
+        if (soldOut.containsKey(voucherId)) {
+            return;
+        }
+        markLocal(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, "soldOut:" + voucherId);
+        log.info("优惠券 {} 已售罄", voucherId);
+    }
+
+    /**
+     * 补充库存以后清除所有节点的标记
+     */
+    public void clear(Long voucherId) {
+        soldOut.remove(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, "clear:" + voucherId);
+    }
+
+    private void markLocal(Long voucherId) {
+        soldOut.put(voucherId, System.currentTimeMillis() + ttlMillis);
+    }
+}
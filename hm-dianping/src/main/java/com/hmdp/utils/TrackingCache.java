@@ -0,0 +1,166 @@
+package com.hmdp.utils;
+
+import io.lettuce.core.ClientOptions;
+import io.lettuce.core.RedisChannelHandler;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisConnectionStateAdapter;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.TrackingArgs;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.codec.ByteArrayCodec;
+import io.lettuce.core.codec.RedisCodec;
+import io.lettuce.core.codec.StringCodec;
+import io.lettuce.core.protocol.ProtocolVersion;
+import io.lettuce.core.resource.ClientResources;
+import io.lettuce.core.support.caching.CacheAccessor;
+import io.lettuce.core.support.caching.CacheFrontend;
+import io.lettuce.core.support.caching.ClientSideCaching;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.net.SocketAddress;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 基于 Redis 6 客户端缓存（CLIENT TRACKING）的本地缓存，默认关闭
+ * 通过这个连接读取过的 key 保存在本地，Redis 在 key 被修改或者删除时通过 RESP3 的推送消息通知删除，
+ * 不需要自己广播失效消息，大部分读取不用访问 Redis
+ * 服务端不支持 RESP3 或者开启失败时不启用，CacheClient 照常读取 Redis；连接断开期间同样不使用，重连后清空本地数据再启用
+ */
+@Slf4j
+@Component
+public class TrackingCache {
+
+    @Value("${hmdp.cache.tracking.enabled:false}")
+    private boolean enabled;
+    // 使用客户端缓存的前缀
+    @Value("${hmdp.cache.tracking.prefixes:}")
+    private String[] prefixes;
+    @Value("${hmdp.cache.tracking.max-size:10000}")
+    private int maxSize;
+
+    private final RedisProperties redisProperties;
+
+    private final ClientResources clientResources;
+
+    private RedisClient client;
+
+    private StatefulRedisConnection<String, byte[]> connection;
+
+    private Map<String, byte[]> local;
+
+    private CacheFrontend<String, byte[]> frontend;
+
+    // 连接正常并且已经开启了 tracking
+    private volatile boolean tracking;
+
+    public TrackingCache(RedisProperties redisProperties, ClientResources clientResources) {
+        this.redisProperties = redisProperties;
+        this.clientResources = clientResources;
+    }
+
+    @PostConstruct
+    private void init() {
+        if (!enabled || prefixes.length == 0) {
+            return;
+        }
+        try {
+            // 1.单独的客户端，强制使用 RESP3，服务端不支持时连接会直接失败
+            client = RedisClient.create(clientResources, redisUri());
+            client.setOptions(ClientOptions.builder().protocolVersion(ProtocolVersion.RESP3).build());
+            client.addListener(new RedisConnectionStateAdapter() {
+                @Override
+                public void onRedisDisconnected(RedisChannelHandler<?, ?> handler) {
+                    // 断开期间收不到失效消息，本地数据不再可信
+                    tracking = false;
+                    if (local != null) {
+                        local.clear();
+                    }
+                }
+
+                @Override
+                public void onRedisConnected(RedisChannelHandler<?, ?> handler, SocketAddress address) {
+                    // 重连以后服务端的 tracking 状态已经丢失，需要重新开启，这里在 IO 线程上，只能使用异步命令
+                    if (connection != null && frontend != null) {
+                        connection.async().clientTracking(TrackingArgs.Builder.enabled()).thenRun(() -> {
+                            local.clear();
+                            tracking = true;
+                            log.info("客户端缓存重新开启");
+                        });
+                    }
+                }
+            });
+            connection = client.connect(RedisCodec.of(StringCodec.UTF8, ByteArrayCodec.INSTANCE));
+            // 2.有容量上限的 LRU，被淘汰的 key 服务端仍然会通知，不影响正确性
+            local = Collections.synchronizedMap(new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                    return size() > maxSize;
+                }
+            });
+            // 3.开启 tracking，注册失效消息的监听
+            frontend = ClientSideCaching.enable(CacheAccessor.forMap(local), connection, TrackingArgs.Builder.enabled());
+            tracking = true;
+            log.info("客户端缓存已开启，前缀：{}", String.join(",", prefixes));
+        } catch (RuntimeException e) {
+            log.warn("Redis 不支持客户端缓存（需要 Redis 6 以上并支持 RESP3），继续直接读取 Redis", e);
+            destroy();
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        tracking = false;
+        frontend = null;
+        if (connection != null) {
+            connection.close();
+            connection = null;
+        }
+        if (client != null) {
+            client.shutdown();
+            client = null;
+        }
+    }
+
+    /**
+     * @return key 是否使用客户端缓存读取
+     */
+    public boolean supports(String key) {
+        if (!tracking) {
+            return false;
+        }
+        for (String prefix : prefixes) {
+            if (key.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 先读本地，没有再读 Redis，读到的值会被服务端跟踪；调用之前需要用 supports 判断
+     */
+    public byte[] get(String key) {
+        return frontend.get(key);
+    }
+
+    private RedisURI redisUri() {
+        RedisURI.Builder builder = RedisURI.builder()
+                .withHost(redisProperties.getHost())
+                .withPort(redisProperties.getPort())
+                .withDatabase(redisProperties.getDatabase());
+        if (redisProperties.getPassword() != null) {
+            builder.withPassword(redisProperties.getPassword().toCharArray());
+        }
+        if (redisProperties.getTimeout() != null) {
+            builder.withTimeout(redisProperties.getTimeout());
+        }
+        return builder.build();
+    }
+}
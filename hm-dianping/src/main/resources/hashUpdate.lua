@@ -0,0 +1,12 @@
+-- 只更新缓存中已经存在的店铺的部分字段，不存在的不写入，避免产生只有部分字段的缓存
+-- KEYS[1]：缓存的 key，ARGV：field1, value1, field2, value2 ...
+if (redis.call('exists', KEYS[1]) == 0) then
+    return 0
+end
+-- 缓存的是空值，数据库中已经有了，直接删除，下次查询重新加载
+if (redis.call('hexists', KEYS[1], '_null') == 1) then
+    redis.call('del', KEYS[1])
+    return 0
+end
+redis.call('hset', KEYS[1], unpack(ARGV))
+return 1
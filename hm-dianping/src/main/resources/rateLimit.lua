@@ -0,0 +1,33 @@
+-- 多个维度的令牌桶限流，所有的桶都有令牌时才放行，并且每个桶扣减一个令牌
+-- KEYS[i]：第 i 个令牌桶，hash 结构，tokens：剩余令牌，ts：上次更新的毫秒时间
+-- ARGV[2i-1]：第 i 个桶每秒生成的令牌数，ARGV[2i]：第 i 个桶的容量
+-- 返回 {0, 0} 表示放行，{i, ms} 表示第 i 个桶没有令牌，ms 毫秒以后才会有
+-- 时间使用 Redis 服务器的时间，各个应用服务器的时钟不一致时不会影响令牌的生成
+-- Redis 5 之前调用 TIME 以后还要写入，需要按照命令复制脚本的效果
+redis.replicate_commands()
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+local tokens = {}
+
+-- 1.计算每个桶现在的令牌数，有一个不够就拒绝，拒绝时不扣减任何桶
+for i = 1, #KEYS do
+    local rate = tonumber(ARGV[2 * i - 1])
+    local capacity = tonumber(ARGV[2 * i])
+    local bucket = redis.call('hmget', KEYS[i], 'tokens', 'ts')
+    local current = tonumber(bucket[1]) or capacity
+    local ts = tonumber(bucket[2]) or now
+    current = math.min(capacity, current + math.max(0, now - ts) * rate / 1000)
+    if current < 1 then
+        return {i, math.ceil((1 - current) * 1000 / rate)}
+    end
+    tokens[i] = current
+end
+
+-- 2.全部放行，每个桶扣减一个令牌，桶装满需要的时间以后自动删除
+for i = 1, #KEYS do
+    local rate = tonumber(ARGV[2 * i - 1])
+    local capacity = tonumber(ARGV[2 * i])
+    redis.call('hmset', KEYS[i], 'tokens', tokens[i] - 1, 'ts', now)
+    redis.call('pexpire', KEYS[i], math.ceil(capacity * 1000 / rate) + 1000)
+end
+return {0, 0}
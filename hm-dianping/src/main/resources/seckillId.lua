@@ -0,0 +1,30 @@
+-- 和 seckill.lua 相同，但是在脚本中分配订单 id 的序列号，被拒绝的请求不会消耗序列号
+-- 1.参数列表
+-- 1.1.优惠券id
+local voucherId = ARGV[1]
+-- 1.2.用户id
+local userId = ARGV[2]
+-- 1.3.订单 id 的计数器 key，和 RedisIdWorker 使用的相同
+local counterKey = ARGV[3]
+
+-- 2.数据key
+local stockKey = 'seckill:stock:' .. voucherId
+local orderKey = 'seckill:order' .. voucherId
+
+-- 3.脚本业务
+-- 3.1.判断库存是否充足
+if (tonumber(redis.call('get', stockKey) or '0') <= 0) then
+    -- 库存不足返回 -1
+    return -1
+end
+-- 3.2.判断用户是否下过单
+if (redis.call('sismember', orderKey, userId) == 1) then
+    -- 重复下单返回 -2
+    return -2
+end
+-- 3.3.扣减库存
+redis.call('incrby', stockKey, -1)
+-- 3.4.下单（保存用户）
+redis.call('sadd', orderKey, userId)
+-- 3.5.分配并返回订单 id 的序列号，由调用方和时间戳拼成订单 id
+return redis.call('incr', counterKey)
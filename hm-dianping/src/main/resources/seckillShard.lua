@@ -0,0 +1,22 @@
+-- 分片库存的秒杀脚本，在用户所属的分片上执行，只访问这个分片的两个 key，在 Redis Cluster 中属于同一个 slot
+-- 1.参数列表
+-- 1.1.用户所属分片的库存 key
+local stockKey = KEYS[1]
+-- 1.2.用户所属分片的已下单用户集合
+local orderKey = KEYS[2]
+-- 1.3.用户id
+local userId = ARGV[1]
+
+-- 2.判断用户是否下过单，用户固定属于这个分片，所以只需要判断这一个集合
+if (redis.call('sismember', orderKey, userId) == 1) then
+    return 2
+end
+-- 3.先占住下单资格，同一个用户的并发请求会在上一步返回 2
+redis.call('sadd', orderKey, userId)
+-- 4.本分片有库存，直接扣减
+if (tonumber(redis.call('get', stockKey) or '0') > 0) then
+    redis.call('incrby', stockKey, -1)
+    return 0
+end
+-- 5.本分片没有库存，返回 3，由调用方去其他分片扣减，都没有库存时再释放资格
+return 3
@@ -0,0 +1,11 @@
+-- 用户所属分片没有库存时，从其他分片扣减库存，一人一单已经在所属分片上判断过，只访问这一个库存 key
+-- 1.参数列表
+local stockKey = KEYS[1]
+
+-- 2.判断库存是否充足
+if (tonumber(redis.call('get', stockKey) or '0') <= 0) then
+    return 1
+end
+-- 3.扣减库存
+redis.call('incrby', stockKey, -1)
+return 0
@@ -5,6 +5,8 @@ local voucherId = ARGV[1]
 local userId = ARGV[2]
 -- 1.3 订单id
 local orderId = ARGV[3]
+-- 1.4 订单消息队列，按照用户 id 分区以后的 stream
+local streamKey = ARGV[4]
 
 -- 2.数据key
 -- 2.1.库存key
@@ -29,5 +31,5 @@ redis.call('incrby', stockKey, -1)
 -- 3.5下单（保存用户）
 redis.call('sadd', orderKey, userId)
 -- 3.6发送消息到队列中
-redis.call("xadd", 'stream.orders', '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+redis.call("xadd", streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
 return 0
\ No newline at end of file
@@ -0,0 +1,36 @@
+-- 和 seckillStream.lua 相同，但是在脚本中分配订单 id 的序列号，被拒绝的请求不会消耗序列号
+-- 1.参数列表
+-- 1.1.优惠券id
+local voucherId = ARGV[1]
+-- 1.2.用户id
+local userId = ARGV[2]
+-- 1.3.订单 id 的计数器 key 和时间戳，和 RedisIdWorker 使用的相同
+local counterKey = ARGV[3]
+local idTime = ARGV[4]
+-- 1.4.订单消息队列，按照用户 id 分区以后的 stream
+local streamKey = ARGV[5]
+
+-- 2.数据key
+local stockKey = 'seckill:stock:' .. voucherId
+local orderKey = 'seckill:order' .. voucherId
+
+-- 3.脚本业务
+-- 3.1.判断库存是否充足
+if (tonumber(redis.call('get', stockKey) or '0') <= 0) then
+    -- 库存不足返回 -1
+    return -1
+end
+-- 3.2.判断用户是否下过单
+if (redis.call('sismember', orderKey, userId) == 1) then
+    -- 重复下单返回 -2
+    return -2
+end
+-- 3.3.扣减库存
+redis.call('incrby', stockKey, -1)
+-- 3.4.下单（保存用户）
+redis.call('sadd', orderKey, userId)
+-- 3.5.分配订单 id 的序列号
+local idSeq = redis.call('incr', counterKey)
+-- 3.6.发送消息到队列中，lua 的数字是 double，拼不出 64 位的订单 id，所以时间戳和序列号分开发送，由消费者拼接
+redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'idTime', idTime, 'idSeq', idSeq)
+return idSeq
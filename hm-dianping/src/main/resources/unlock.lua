@@ -0,0 +1,5 @@
+-- 比较 key 中保存的标示和传入的是否一致，一致时才删除，避免删除别人的锁
+if (redis.call('get', KEYS[1]) == ARGV[1]) then
+    return redis.call('del', KEYS[1])
+end
+return 0
@@ -0,0 +1,6 @@
+-- 续期 worker id 的租约，只有持有者才能续期
+-- KEYS[1]：租约 key，ARGV[1]：持有者标示，ARGV[2]：过期时间（秒）
+if (redis.call('get', KEYS[1]) == ARGV[1]) then
+    return redis.call('expire', KEYS[1], ARGV[2])
+end
+return 0
@@ -0,0 +1,133 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.CACHE_LOCK_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class CacheClientTest {
+
+    private static final String KEY = CACHE_SHOP_KEY + 1;
+
+    private final StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+
+    @SuppressWarnings("unchecked")
+    private final ValueOperations<String, String> stringOperations = mock(ValueOperations.class);
+
+    @SuppressWarnings("unchecked")
+    private final RedisTemplate<String, byte[]> byteRedisTemplate = mock(RedisTemplate.class);
+
+    @SuppressWarnings("unchecked")
+    private final ValueOperations<String, byte[]> byteOperations = mock(ValueOperations.class);
+
+    private final HotKeyDetector hotKeyDetector = mock(HotKeyDetector.class);
+
+    private final TrackingCache trackingCache = mock(TrackingCache.class);
+
+    private final CacheMetrics cacheMetrics = new CacheMetrics(new SimpleMeterRegistry());
+
+    private final CacheCodecs cacheCodecs = new CacheCodecs(cacheMetrics);
+
+    private final LocalCache localCache = new LocalCache(hotKeyDetector, 100, 1000);
+
+    // 模拟 Redis 中的缓存值
+    private final Map<String, byte[]> redis = new ConcurrentHashMap<>();
+
+    private CacheRebuildScheduler rebuildScheduler;
+
+    private CacheClient cacheClient;
+
+    @BeforeEach
+    void setUp() {
+        when(stringRedisTemplate.opsForValue()).thenReturn(stringOperations);
+        when(stringOperations.setIfAbsent(anyString(), anyString(), anyLong(), any())).thenReturn(true);
+        when(byteRedisTemplate.opsForValue()).thenReturn(byteOperations);
+        when(byteOperations.get(anyString())).thenAnswer(invocation -> redis.get(invocation.<String>getArgument(0)));
+        doAnswer(invocation -> redis.put(invocation.getArgument(0), invocation.getArgument(1)))
+                .when(byteOperations).set(anyString(), any(byte[].class));
+        doAnswer(invocation -> redis.put(invocation.getArgument(0), invocation.getArgument(1)))
+                .when(byteOperations).set(anyString(), any(byte[].class), anyLong(), any());
+        rebuildScheduler = new CacheRebuildScheduler(hotKeyDetector, cacheMetrics, 1, 10);
+        cacheClient = new CacheClient(stringRedisTemplate, byteRedisTemplate, localCache, cacheCodecs,
+                hotKeyDetector, cacheMetrics, rebuildScheduler, trackingCache);
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.invokeMethod(rebuildScheduler, "destroy");
+    }
+
+    // 逻辑过期的数据在数据库中已经被删除：后台重建写入空值，之后不再返回旧数据
+    @Test
+    void logicalExpireRebuildOfDeletedEntityWritesNull() throws InterruptedException {
+        redis.put(KEY, cacheCodecs.encodeWithLogicalExpire(KEY, shop(), LocalDateTime.now().minusSeconds(1)));
+
+        Shop stale = cacheClient.queryWithLogicalExpire(CACHE_SHOP_KEY, 1L, Shop.class, id -> null, 30L, TimeUnit.MINUTES);
+        assertEquals(shop(), stale);
+        awaitRebuilt();
+
+        assertEquals(0, redis.get(KEY).length);
+        verify(stringRedisTemplate).delete(CACHE_LOCK_KEY + KEY);
+        assertNull(cacheClient.queryWithLogicalExpire(CACHE_SHOP_KEY, 1L, Shop.class,
+                id -> fail("空值不需要重建"), 30L, TimeUnit.MINUTES));
+    }
+
+    // 软过期的数据在数据库中已经被删除：后台重建写入空值，之后命中空值
+    @Test
+    void softExpireRebuildOfDeletedEntityWritesNull() throws InterruptedException {
+        redis.put(KEY, cacheCodecs.encodeWithLogicalExpire(KEY, shop(), LocalDateTime.now().minusSeconds(1)));
+
+        Shop stale = cacheClient.queryWithSoftExpire(CACHE_SHOP_KEY, 1L, Shop.class, id -> null,
+                30L, 60L, TimeUnit.MINUTES);
+        assertEquals(shop(), stale);
+        awaitRebuilt();
+
+        assertEquals(0, redis.get(KEY).length);
+        assertNull(cacheClient.queryWithSoftExpire(CACHE_SHOP_KEY, 1L, Shop.class,
+                id -> fail("空值不需要重建"), 30L, 60L, TimeUnit.MINUTES));
+    }
+
+    // 数据仍然存在时正常重建
+    @Test
+    void logicalExpireRebuildRefreshesValue() throws InterruptedException {
+        redis.put(KEY, cacheCodecs.encodeWithLogicalExpire(KEY, shop(), LocalDateTime.now().minusSeconds(1)));
+        Shop updated = shop().setName("新名字");
+
+        cacheClient.queryWithLogicalExpire(CACHE_SHOP_KEY, 1L, Shop.class, id -> updated, 30L, TimeUnit.MINUTES);
+        awaitRebuilt();
+
+        RedisData redisData = cacheCodecs.decodeWithLogicalExpire(KEY, redis.get(KEY), Shop.class);
+        assertEquals(updated, redisData.getData());
+        assertTrue(redisData.getExpireTime().isAfter(LocalDateTime.now()));
+    }
+
+    // 重建在后台线程中执行，结束时释放锁
+    private void awaitRebuilt() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (rebuildScheduler.isPending(KEY)) {
+            assertTrue(System.currentTimeMillis() < deadline, "重建一直没有结束");
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+    }
+
+    private static Shop shop() {
+        return new Shop().setId(1L).setName("101茶餐厅").setTypeId(1L).setArea("大关").setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192).setY(30.316078).setAvgPrice(80L).setSold(4215).setScore(37);
+    }
+}
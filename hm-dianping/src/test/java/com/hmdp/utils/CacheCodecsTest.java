@@ -0,0 +1,188 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.RandomUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+
+import static com.hmdp.utils.CacheCodecs.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheCodecsTest {
+
+    private static final String SHOP_KEY = RedisConstants.CACHE_SHOP_KEY + 1;
+
+    private CacheCodecs cacheCodecs;
+
+    @BeforeEach
+    void setUp() {
+        cacheCodecs = new CacheCodecs(new CacheMetrics(new SimpleMeterRegistry()));
+    }
+
+    // 头部的低 4 位是写入时使用的编解码器 id，没有配置的前缀使用 JSON
+    @Test
+    void headerCarriesCodecIdOfPrefix() {
+        Shop shop = shop("101茶餐厅");
+        assertEquals(JsonCacheCodec.ID, cacheCodecs.encode(SHOP_KEY, shop)[0]);
+
+        cacheCodecs.register(RedisConstants.CACHE_SHOP_KEY, "binary");
+        byte[] bytes = cacheCodecs.encode(SHOP_KEY, shop);
+        assertEquals(BinaryCacheCodec.ID, bytes[0] & CODEC_MASK);
+        assertEquals(0, bytes[0] & ~CODEC_MASK);
+        assertEquals(shop, cacheCodecs.decode(SHOP_KEY, bytes, Shop.class));
+
+        // 读取始终按照头部的 id，切换编解码器以前写入的数据仍然可以读取
+        byte[] jackson = new CacheCodecs(new CacheMetrics(new SimpleMeterRegistry())) {{
+            register(RedisConstants.CACHE_SHOP_KEY, "jackson");
+        }}.encode(SHOP_KEY, shop);
+        assertEquals(JacksonCacheCodec.ID, jackson[0]);
+        assertEquals(shop, cacheCodecs.decode(SHOP_KEY, jackson, Shop.class));
+    }
+
+    // 数组（店铺类型列表）和对象一样可以编解码
+    @Test
+    void arrayRoundTrips() {
+        ShopType[] types = shopTypes();
+        byte[] bytes = cacheCodecs.encode(RedisConstants.CACHE_SHOPTYPE_KEY, types);
+        assertEquals(JsonCacheCodec.ID, bytes[0]);
+        assertArrayEquals(types, cacheCodecs.decode(RedisConstants.CACHE_SHOPTYPE_KEY, bytes, ShopType[].class));
+    }
+
+    @Test
+    void registerRejectsUnknownCodec() {
+        assertThrows(IllegalArgumentException.class, () -> cacheCodecs.register("cache:shop:", "xml"));
+    }
+
+    // 逻辑过期时间紧跟在头部后面，8 个字节的毫秒时间戳
+    @Test
+    void logicalExpireFlagWritesExpireTime() {
+        LocalDateTime expireTime = LocalDateTime.now().plusMinutes(30).truncatedTo(ChronoUnit.MILLIS);
+        byte[] bytes = cacheCodecs.encodeWithLogicalExpire(SHOP_KEY, shop("101茶餐厅"), expireTime);
+
+        assertEquals(JsonCacheCodec.ID | LOGICAL_EXPIRE, bytes[0]);
+        assertEquals(expireTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli(),
+                ByteBuffer.wrap(bytes, 1, 8).getLong());
+        RedisData redisData = cacheCodecs.decodeWithLogicalExpire(SHOP_KEY, bytes, Shop.class);
+        assertEquals(expireTime, redisData.getExpireTime());
+        assertEquals(0, redisData.getRecomputeMillis());
+        assertEquals("101茶餐厅", ((Shop) redisData.getData()).getName());
+        assertFalse(cacheCodecs.isLogicallyExpired(bytes));
+    }
+
+    // 重建耗时只在带逻辑过期时间并且大于 0 时写入
+    @Test
+    void recomputeCostFlagWritesCost() {
+        LocalDateTime expireTime = LocalDateTime.now().minusSeconds(1);
+        byte[] bytes = cacheCodecs.encodeWithLogicalExpire(SHOP_KEY, shop("101茶餐厅"), expireTime, 35);
+
+        assertEquals(JsonCacheCodec.ID | LOGICAL_EXPIRE | RECOMPUTE_COST, bytes[0]);
+        assertEquals(35, ByteBuffer.wrap(bytes, 9, 4).getInt());
+        RedisData redisData = cacheCodecs.decodeWithLogicalExpire(SHOP_KEY, bytes, Shop.class);
+        assertEquals(35, redisData.getRecomputeMillis());
+        assertEquals("101茶餐厅", ((Shop) redisData.getData()).getName());
+        assertTrue(cacheCodecs.isLogicallyExpired(bytes));
+
+        byte[] withoutCost = cacheCodecs.encodeWithLogicalExpire(SHOP_KEY, shop("101茶餐厅"), expireTime, 0);
+        assertEquals(JsonCacheCodec.ID | LOGICAL_EXPIRE, withoutCost[0]);
+    }
+
+    @Test
+    void decodeWithLogicalExpireRejectsPlainValue() {
+        byte[] bytes = cacheCodecs.encode(SHOP_KEY, shop("101茶餐厅"));
+        assertFalse(cacheCodecs.isLogicallyExpired(bytes));
+        assertThrows(IllegalStateException.class,
+                () -> cacheCodecs.decodeWithLogicalExpire(SHOP_KEY, bytes, Shop.class));
+    }
+
+    // 超过阈值并且压缩后变小的数据设置 COMPRESSED 位，头部后面是原始长度
+    @Test
+    void largePayloadIsCompressed() {
+        Shop shop = shop(StrUtil.repeat("茶餐厅", 1000));
+        int rawLength = new JsonCacheCodec().encode(shop).length;
+        LocalDateTime expireTime = LocalDateTime.now().plusMinutes(30).truncatedTo(ChronoUnit.MILLIS);
+        byte[] bytes = cacheCodecs.encodeWithLogicalExpire(SHOP_KEY, shop, expireTime, 12);
+
+        assertEquals(JsonCacheCodec.ID | LOGICAL_EXPIRE | RECOMPUTE_COST | COMPRESSED, bytes[0]);
+        assertEquals(rawLength, ByteBuffer.wrap(bytes, 13, 4).getInt());
+        assertTrue(bytes.length < rawLength);
+        RedisData redisData = cacheCodecs.decodeWithLogicalExpire(SHOP_KEY, bytes, Shop.class);
+        assertEquals(expireTime, redisData.getExpireTime());
+        assertEquals(12, redisData.getRecomputeMillis());
+        assertEquals(shop, redisData.getData());
+
+        byte[] plain = cacheCodecs.encode(SHOP_KEY, shop);
+        assertEquals(JsonCacheCodec.ID | COMPRESSED, plain[0]);
+        assertEquals(shop, cacheCodecs.decode(SHOP_KEY, plain, Shop.class));
+    }
+
+    // 压缩以后没有变小的保留原始数据
+    @Test
+    void incompressiblePayloadIsKeptRaw() {
+        Shop shop = shop(RandomUtil.randomString(4096));
+        byte[] bytes = cacheCodecs.encode(SHOP_KEY, shop);
+        assertEquals(JsonCacheCodec.ID, bytes[0]);
+        assertEquals(shop, cacheCodecs.decode(SHOP_KEY, bytes, Shop.class));
+    }
+
+    // 升级之前 JSONUtil 直接写入的旧数据，第一个字节是 '{' 或者 '['
+    @Test
+    void legacyJsonIsDecoded() {
+        Shop shop = shop("101茶餐厅");
+        byte[] legacy = JSONUtil.toJsonStr(shop).getBytes(StandardCharsets.UTF_8);
+        assertEquals(shop, cacheCodecs.decode(SHOP_KEY, legacy, Shop.class));
+        assertFalse(cacheCodecs.isLogicallyExpired(legacy));
+
+        ShopType[] types = shopTypes();
+        byte[] legacyArray = JSONUtil.toJsonStr(types).getBytes(StandardCharsets.UTF_8);
+        assertEquals('[', legacyArray[0]);
+        assertArrayEquals(types, cacheCodecs.decode(RedisConstants.CACHE_SHOPTYPE_KEY, legacyArray, ShopType[].class));
+    }
+
+    @Test
+    void legacyLogicalExpireIsDecoded() {
+        RedisData old = new RedisData();
+        old.setExpireTime(LocalDateTime.now().plusMinutes(30).withNano(0));
+        old.setData(shop("101茶餐厅"));
+        byte[] legacy = JSONUtil.toJsonStr(old).getBytes(StandardCharsets.UTF_8);
+
+        RedisData redisData = cacheCodecs.decodeWithLogicalExpire(SHOP_KEY, legacy, Shop.class);
+        assertEquals(old.getExpireTime(), redisData.getExpireTime());
+        assertEquals(old.getData(), redisData.getData());
+    }
+
+    // '{' 和 '[' 的低 4 位不是任何编解码器的 id，不会和新格式冲突
+    @Test
+    void legacyMarkersDoNotCollideWithCodecIds() {
+        for (byte id : new byte[]{JsonCacheCodec.ID, JacksonCacheCodec.ID, BinaryCacheCodec.ID}) {
+            assertNotEquals('{' & CODEC_MASK, id);
+            assertNotEquals('[' & CODEC_MASK, id);
+        }
+    }
+
+    @Test
+    void unknownCodecIdIsRejected() {
+        byte[] bytes = cacheCodecs.encode(SHOP_KEY, shop("101茶餐厅"));
+        bytes[0] = 0x0E;
+        assertThrows(IllegalStateException.class, () -> cacheCodecs.decode(SHOP_KEY, bytes, Shop.class));
+    }
+
+    private static ShopType[] shopTypes() {
+        return new ShopType[]{new ShopType().setId(1L).setName("美食").setSort(1),
+                new ShopType().setId(2L).setName("KTV").setSort(2)};
+    }
+
+    private static Shop shop(String name) {
+        return new Shop().setId(1L).setName(name).setTypeId(1L).setArea("大关").setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192).setY(30.316078).setAvgPrice(80L).setSold(4215).setScore(37);
+    }
+}
@@ -0,0 +1,151 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class CacheRebuildSchedulerTest {
+
+    private static final String PREFIX = RedisConstants.CACHE_SHOP_KEY;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final HotKeyDetector hotKeyDetector = mock(HotKeyDetector.class);
+
+    private CacheRebuildScheduler scheduler;
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.invokeMethod(scheduler, "destroy");
+    }
+
+    // 同一个 key 在队列中或者正在执行时不会重复提交，执行完以后可以再次提交
+    @Test
+    void duplicateKeyIsRejectedUntilDone() throws Exception {
+        scheduler = newScheduler(2, 10);
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+
+        assertTrue(scheduler.submit(PREFIX, PREFIX + 1, () -> {
+            running.countDown();
+            await(release);
+            done.countDown();
+        }));
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        assertTrue(scheduler.isPending(PREFIX + 1));
+        assertFalse(scheduler.submit(PREFIX, PREFIX + 1, () -> fail("重复的任务不应该执行")));
+        assertEquals(1, rejected("duplicate"));
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        waitUntilIdle(PREFIX + 1);
+        CountDownLatch again = new CountDownLatch(1);
+        assertTrue(scheduler.submit(PREFIX, PREFIX + 1, again::countDown));
+        assertTrue(again.await(5, TimeUnit.SECONDS));
+    }
+
+    // 队列满了以后放弃重建，被放弃的 key 不会留在 pending 中
+    @Test
+    void fullQueueRejects() throws Exception {
+        scheduler = newScheduler(1, 2);
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        // 唯一的线程被占住，开始执行的任务不再占用队列
+        assertTrue(scheduler.submit(PREFIX, PREFIX + 1, () -> {
+            running.countDown();
+            await(release);
+        }));
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+
+        assertTrue(scheduler.submit(PREFIX, PREFIX + 2, () -> { }));
+        assertTrue(scheduler.submit(PREFIX, PREFIX + 3, () -> { }));
+        assertFalse(scheduler.submit(PREFIX, PREFIX + 4, () -> fail("队列已满，不应该执行")));
+        assertFalse(scheduler.isPending(PREFIX + 4));
+        assertEquals(1, rejected("full"));
+
+        release.countDown();
+        waitUntilIdle(PREFIX + 3);
+        assertTrue(scheduler.submit(PREFIX, PREFIX + 4, () -> { }));
+    }
+
+    // 越热的 key 越先执行，频率相同的按照提交顺序
+    @Test
+    void hotterKeysRunFirst() throws Exception {
+        when(hotKeyDetector.estimateQps(anyString())).thenReturn(0L);
+        when(hotKeyDetector.estimateQps(PREFIX + 3)).thenReturn(500L);
+        when(hotKeyDetector.estimateQps(PREFIX + 4)).thenReturn(2000L);
+        scheduler = newScheduler(1, 10);
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        assertTrue(scheduler.submit(PREFIX, PREFIX + 0, () -> {
+            running.countDown();
+            await(release);
+        }));
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+
+        List<Integer> order = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(4);
+        for (int id = 1; id <= 4; id++) {
+            int current = id;
+            assertTrue(scheduler.submit(PREFIX, PREFIX + id, () -> {
+                order.add(current);
+                done.countDown();
+            }));
+        }
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(4, 3, 1, 2), order);
+    }
+
+    // 任务抛出异常时释放 key，线程继续处理后面的任务
+    @Test
+    void failedTaskReleasesKey() throws Exception {
+        scheduler = newScheduler(1, 10);
+        assertTrue(scheduler.submit(PREFIX, PREFIX + 1, () -> {
+            throw new IllegalStateException("db down");
+        }));
+        CountDownLatch next = new CountDownLatch(1);
+        assertTrue(scheduler.submit(PREFIX, PREFIX + 2, next::countDown));
+        assertTrue(next.await(5, TimeUnit.SECONDS));
+        waitUntilIdle(PREFIX + 1);
+        assertTrue(scheduler.submit(PREFIX, PREFIX + 1, () -> { }));
+    }
+
+    private CacheRebuildScheduler newScheduler(int threads, int queueSize) {
+        return new CacheRebuildScheduler(hotKeyDetector, new CacheMetrics(registry), threads, queueSize);
+    }
+
+    private double rejected(String reason) {
+        return registry.counter("cache.rebuild.rejected", "prefix", PREFIX, "reason", reason).count();
+    }
+
+    // pending 在任务结束的 finally 中移除，稍晚于任务本身
+    private void waitUntilIdle(String key) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (scheduler.isPending(key)) {
+            assertTrue(System.currentTimeMillis() < deadline, key + " 一直没有结束");
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class LocalCacheTest {
+
+    private static final String SHOP_KEY = RedisConstants.CACHE_SHOP_KEY + 1;
+
+    private final HotKeyDetector hotKeyDetector = mock(HotKeyDetector.class);
+
+    private LocalCache localCache;
+
+    @BeforeEach
+    void setUp() {
+        localCache = new LocalCache(hotKeyDetector, 100, 200);
+        localCache.register(RedisConstants.CACHE_SHOP_KEY, 100, 200L, TimeUnit.MILLISECONDS);
+    }
+
+    // 过期时间从写入时开始算，持续读取不会延长
+    @Test
+    void regionEntryExpiresWhileRead() throws InterruptedException {
+        localCache.put(SHOP_KEY, "shop");
+        long deadline = System.currentTimeMillis() + 400;
+        while (System.currentTimeMillis() < deadline && localCache.get(SHOP_KEY) != null) {
+            TimeUnit.MILLISECONDS.sleep(20);
+        }
+        assertNull(localCache.get(SHOP_KEY));
+    }
+
+    @Test
+    void nullIsCachedAsMarker() {
+        localCache.put(SHOP_KEY, null);
+        assertSame(LocalCache.NULL_VALUE, localCache.get(SHOP_KEY));
+        localCache.invalidate(SHOP_KEY);
+        assertNull(localCache.get(SHOP_KEY));
+    }
+
+    // 没有注册的前缀只有热点 key 才保存在本地
+    @Test
+    void unregisteredPrefixOnlyKeepsHotKeys() {
+        String key = RedisConstants.CACHE_USER_KEY + 1;
+        localCache.put(key, "user");
+        assertNull(localCache.get(key));
+
+        when(hotKeyDetector.isHot(key)).thenReturn(true);
+        localCache.put(key, "user");
+        assertEquals("user", localCache.get(key));
+    }
+
+    // 热点副本的短期过期时间从写入时开始算，一直被读取的热点 key 也会过期
+    @Test
+    void hotReplicaExpiresWhileRead() throws InterruptedException {
+        String key = RedisConstants.CACHE_USER_KEY + 1;
+        when(hotKeyDetector.isHot(key)).thenReturn(true);
+        localCache.put(key, "user");
+        assertEquals("user", localCache.get(key));
+        long deadline = System.currentTimeMillis() + 400;
+        while (System.currentTimeMillis() < deadline && localCache.get(key) != null) {
+            TimeUnit.MILLISECONDS.sleep(20);
+        }
+        assertNull(localCache.get(key));
+    }
+}
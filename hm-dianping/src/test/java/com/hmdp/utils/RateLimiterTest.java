@@ -0,0 +1,173 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.mock.env.MockEnvironment;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.RATE_LIMIT_KEY;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * rateLimit.lua 需要 Redis 3.2 以上，使用内嵌的 Redis 6 执行真实的脚本
+ */
+class RateLimiterTest {
+
+    private static final String IP = "10.0.0.1";
+
+    private static RedisServer redisServer;
+
+    private static LettuceConnectionFactory connectionFactory;
+
+    private static StringRedisTemplate stringRedisTemplate;
+
+    private final MockEnvironment environment = new MockEnvironment();
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final RateLimiter rateLimiter = new RateLimiter(stringRedisTemplate, environment, registry, 1000);
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        redisServer = new RedisServer(port);
+        redisServer.start();
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1", port));
+        connectionFactory.afterPropertiesSet();
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        connectionFactory.destroy();
+        redisServer.stop();
+    }
+
+    @AfterEach
+    void flush() {
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            connection.flushAll();
+            return null;
+        });
+    }
+
+    // 桶里一开始是满的，容量用完以后拒绝，之后在本地拒绝，不再访问 Redis
+    @Test
+    void allowsBurstThenRejects() {
+        limit("order", RateLimiter.USER, 1, 3);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(rateLimiter.tryAcquire("order", 1L, IP, null));
+        }
+        assertFalse(rateLimiter.tryAcquire("order", 1L, IP, null));
+        assertEquals(1, rejected("order", RateLimiter.USER, "redis"));
+
+        assertFalse(rateLimiter.tryAcquire("order", 1L, IP, null));
+        assertEquals(1, rejected("order", RateLimiter.USER, "redis"));
+        assertEquals(1, rejected("order", RateLimiter.USER, "local"));
+
+        // 其他用户不受影响
+        assertTrue(rateLimiter.tryAcquire("order", 2L, IP, null));
+    }
+
+    // 按照速率生成令牌，本地的拒绝记录到下一个令牌生成为止
+    @Test
+    void refillsAtRate() throws InterruptedException {
+        limit("order", RateLimiter.USER, 20, 1);
+        assertTrue(rateLimiter.tryAcquire("order", 1L, IP, null));
+        assertFalse(rateLimiter.tryAcquire("order", 1L, IP, null));
+        // 每 50ms 生成一个令牌
+        TimeUnit.MILLISECONDS.sleep(120);
+        assertTrue(rateLimiter.tryAcquire("order", 1L, IP, null));
+        assertFalse(rateLimiter.tryAcquire("order", 1L, IP, null));
+    }
+
+    // 所有的桶都有令牌才放行，一个桶拒绝时其他的桶不扣减
+    @Test
+    void rejectionDeductsNoBucket() {
+        limit("order", RateLimiter.USER, 1, 5);
+        limit("order", RateLimiter.IP, 1, 1);
+        assertTrue(rateLimiter.tryAcquire("order", 1L, IP, null));
+        assertEquals(4, tokens(bucket("order", RateLimiter.USER, 1L)), 0.1);
+
+        // IP 的桶已经空了，用户的桶不扣减
+        assertFalse(rateLimiter.tryAcquire("order", 1L, IP, null));
+        assertEquals(1, rejected("order", RateLimiter.IP, "redis"));
+        assertEquals(4, tokens(bucket("order", RateLimiter.USER, 1L)), 0.1);
+
+        // 换一个 IP 以后两个桶都有令牌
+        assertTrue(rateLimiter.tryAcquire("order", 1L, "10.0.0.2", null));
+        assertEquals(3, tokens(bucket("order", RateLimiter.USER, 1L)), 0.1);
+    }
+
+    // 没有配置的维度和值为 null 的维度不限制，都没有时不访问 Redis
+    @Test
+    void unconfiguredDimensionsAreSkipped() {
+        limit("order", RateLimiter.RESOURCE, 1, 1);
+        assertTrue(rateLimiter.tryAcquire("order", 1L, IP, null));
+        assertTrue(rateLimiter.tryAcquire("order", 1L, IP, null));
+        assertFalse(stringRedisTemplate.hasKey(bucket("order", RateLimiter.USER, 1L)));
+
+        assertTrue(rateLimiter.tryAcquire("order", 1L, IP, "10"));
+        assertFalse(rateLimiter.tryAcquire("order", 2L, "10.0.0.2", "10"));
+        assertTrue(rateLimiter.tryAcquire("blog", 1L, IP, "10"));
+    }
+
+    // 令牌桶的时间使用 Redis 服务器的时间，和应用服务器的时钟无关；桶装满以后自动过期
+    @Test
+    void bucketUsesRedisTime() {
+        limit("order", RateLimiter.USER, 2, 4);
+        assertTrue(rateLimiter.tryAcquire("order", 1L, IP, null));
+        String key = bucket("order", RateLimiter.USER, 1L);
+        long redisTime = stringRedisTemplate.execute((RedisCallback<Long>) connection -> connection.time());
+        long ts = Long.parseLong((String) stringRedisTemplate.opsForHash().get(key, "ts"));
+        assertTrue(ts <= redisTime && redisTime - ts < 1000, "ts 是 Redis 的 TIME");
+        // 装满需要 2 秒，再留 1 秒
+        long ttl = stringRedisTemplate.getExpire(key, TimeUnit.MILLISECONDS);
+        assertTrue(ttl > 2000 && ttl <= 3000, "ttl = " + ttl);
+    }
+
+    // Redis 不可用时放行
+    @Test
+    void redisFailureAllows() {
+        StringRedisTemplate broken = mock(StringRedisTemplate.class, invocation -> {
+            throw new IllegalStateException("redis down");
+        });
+        limit("order", RateLimiter.USER, 1, 1);
+        RateLimiter limiter = new RateLimiter(broken, environment, registry, 1000);
+        assertTrue(limiter.tryAcquire("order", 1L, IP, null));
+        assertTrue(limiter.tryAcquire("order", 1L, IP, null));
+    }
+
+    private void limit(String name, String dimension, double rate, double burst) {
+        String prefix = "hmdp.rate-limit." + name + "." + dimension;
+        environment.setProperty(prefix + "-rate", String.valueOf(rate));
+        environment.setProperty(prefix + "-burst", String.valueOf(burst));
+    }
+
+    private static String bucket(String name, String dimension, Object value) {
+        return RATE_LIMIT_KEY + name + ":" + dimension + ":" + value;
+    }
+
+    private static double tokens(String key) {
+        return Double.parseDouble((String) stringRedisTemplate.opsForHash().get(key, "tokens"));
+    }
+
+    private double rejected(String name, String dimension, String stage) {
+        return registry.counter("rate.limit.rejected", "name", name, "dimension", dimension, "stage", stage).count();
+    }
+}
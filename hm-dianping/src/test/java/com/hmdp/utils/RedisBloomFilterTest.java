@@ -0,0 +1,129 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 多个节点共用一个 Redis，节点之间的 pub/sub 通知由测试直接调用对应的方法模拟
+ */
+class RedisBloomFilterTest {
+
+    private static RedisServer redisServer;
+
+    private static LettuceConnectionFactory connectionFactory;
+
+    private static StringRedisTemplate stringRedisTemplate;
+
+    // 数据库中的 id
+    private final List<Long> db = new CopyOnWriteArrayList<>(Arrays.asList(1L, 2L, 3L));
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        redisServer = new RedisServer(port);
+        redisServer.start();
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1", port));
+        connectionFactory.afterPropertiesSet();
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        connectionFactory.destroy();
+        redisServer.stop();
+    }
+
+    @AfterEach
+    void flush() {
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            connection.flushAll();
+            return null;
+        });
+    }
+
+    // 第一个节点从数据库构建，之后的节点直接加载 Redis 中的 bitmap
+    @Test
+    void initBuildsOnceAndOtherNodesLoad() {
+        RedisBloomFilter first = newNode();
+        first.init();
+        assertTrue(first.mightContain(1L));
+        assertFalse(first.mightContain(100L));
+
+        db.add(100L);
+        RedisBloomFilter second = newNode();
+        second.init();
+        assertTrue(second.mightContain(1L));
+        assertFalse(second.mightContain(100L), "已经有 bitmap 时不会从数据库重建");
+    }
+
+    // 重建以后删除的 id 不再存在
+    @Test
+    void rebuildDropsDeletedIds() {
+        RedisBloomFilter node = newNode();
+        node.init();
+        db.remove(2L);
+        node.rebuild();
+        assertFalse(node.mightContain(2L));
+        assertTrue(node.mightContain(1L));
+    }
+
+    // 其他节点写入旧 bitmap 的 id，通知在重建之后才到达：收到重新加载的通知以后补写，不会丢失
+    @Test
+    void addOnOtherNodeSurvivesRebuild() {
+        RedisBloomFilter rebuilding = newNode();
+        RedisBloomFilter other = newNode();
+        rebuilding.init();
+        other.init();
+
+        // 事务还没有提交，重建时数据库中读不到
+        other.add(100L);
+        rebuilding.rebuild();
+        assertFalse(rebuilding.mightContain(100L));
+
+        other.reloadAndReplay();
+        assertTrue(other.mightContain(100L));
+        // 补写到了 Redis 中，其他节点重新加载以后也能看到
+        rebuilding.reloadLocal();
+        assertTrue(rebuilding.mightContain(100L));
+        RedisBloomFilter restarted = newNode();
+        restarted.init();
+        assertTrue(restarted.mightContain(100L));
+    }
+
+    // 本节点最近新增、重建时数据库中还读不到的 id 在重建时补写
+    @Test
+    void recentLocalAddSurvivesRebuild() {
+        RedisBloomFilter node = newNode();
+        node.init();
+        node.add(100L);
+        node.rebuild();
+        assertTrue(node.mightContain(100L));
+    }
+
+    private RedisBloomFilter newNode() {
+        return new RedisBloomFilter("test", 1000, 0.01, stringRedisTemplate, this::ids);
+    }
+
+    private Collection<?> ids() {
+        return db;
+    }
+}
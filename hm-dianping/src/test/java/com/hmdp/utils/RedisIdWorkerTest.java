@@ -0,0 +1,214 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class RedisIdWorkerTest {
+
+    // 序列号的位数，和 RedisIdWorker 一致
+    private static final int COUNT_BITS = 32;
+
+    private final StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+
+    @SuppressWarnings("unchecked")
+    private final ValueOperations<String, String> valueOperations = mock(ValueOperations.class);
+
+    // 模拟 Redis 中的计数器
+    private final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+
+    private final List<RedisIdWorker> workers = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.increment(anyString())).thenAnswer(invocation ->
+                counters.computeIfAbsent(invocation.getArgument(0), k -> new AtomicLong()).incrementAndGet());
+        when(valueOperations.increment(anyString(), anyLong())).thenAnswer(invocation ->
+                counters.computeIfAbsent(invocation.getArgument(0), k -> new AtomicLong())
+                        .addAndGet(invocation.getArgument(1)));
+    }
+
+    @AfterEach
+    void tearDown() {
+        workers.forEach(worker -> ReflectionTestUtils.invokeMethod(worker, "destroy"));
+    }
+
+    // 不开启号段时每个 id 访问一次 Redis
+    @Test
+    void withoutSegmentEachIdIncrements() {
+        RedisIdWorker worker = newWorker(0, 0.8);
+        long first = worker.nextId("order");
+        long second = worker.nextId("order");
+        assertTrue(second > first);
+        assertEquals(1, first & 0xFFFFFFFFL);
+        assertEquals(2, second & 0xFFFFFFFFL);
+        verify(valueOperations, times(2)).increment(anyString());
+        verify(valueOperations, never()).increment(anyString(), anyLong());
+    }
+
+    // 号段模式：一个号段内在本地分配，序列号连续递增，用完以后再预支下一段
+    @Test
+    void segmentAllocatesLocallyAndRefills() {
+        RedisIdWorker worker = newWorker(10, 0.5);
+        long last = 0;
+        Set<Long> ids = new HashSet<>();
+        for (int i = 1; i <= 25; i++) {
+            long id = worker.nextId("order");
+            if (i <= 10) {
+                assertEquals(i, id & 0xFFFFFFFFL);
+            }
+            assertTrue(id > last, "同一个节点生成的 id 递增");
+            last = id;
+            ids.add(id);
+        }
+        assertEquals(25, ids.size());
+        // 25 个 id 至少需要 3 个号段，后台预支最多再多一个
+        verify(valueOperations, atLeast(3)).increment(anyString(), eq(10L));
+        verify(valueOperations, atMost(4)).increment(anyString(), eq(10L));
+        verify(valueOperations, never()).increment(anyString());
+    }
+
+    // 用到 prefetch-ratio 时在后台预支下一段，切换时直接使用，不再同步访问 Redis
+    @Test
+    void prefetchesNextSegmentInBackground() {
+        RedisIdWorker worker = newWorker(10, 0.5);
+        for (int i = 1; i <= 5; i++) {
+            assertEquals(i, worker.nextId("order") & 0xFFFFFFFFL);
+        }
+        // 第 5 个 id 触发预支
+        verify(valueOperations, timeout(5000).times(2)).increment(anyString(), eq(10L));
+        // 预支的号段是 (10, 20]，切换时直接使用
+        for (int i = 6; i <= 14; i++) {
+            assertEquals(i, worker.nextId("order") & 0xFFFFFFFFL);
+        }
+        verify(valueOperations, times(2)).increment(anyString(), eq(10L));
+        // 第 15 个 id 触发下一次预支
+        assertEquals(15, worker.nextId("order") & 0xFFFFFFFFL);
+        verify(valueOperations, timeout(5000).times(3)).increment(anyString(), eq(10L));
+    }
+
+    // 预支先执行了 INCRBY，但是写回之前号段已经用完并同步预支了更大的号段，预支回来的号段需要丢弃，不能让 id 变小
+    @Test
+    void latePrefetchedSegmentIsDiscarded() throws Exception {
+        CountDownLatch incremented = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(valueOperations.increment(anyString(), anyLong())).thenAnswer(invocation -> {
+            long end = counters.computeIfAbsent(invocation.getArgument(0), k -> new AtomicLong())
+                    .addAndGet(invocation.getArgument(1));
+            if (Thread.currentThread().getName().startsWith("id-segment-prefetch") && end == 20) {
+                incremented.countDown();
+                assertTrue(release.await(5, TimeUnit.SECONDS));
+            }
+            return end;
+        });
+        RedisIdWorker worker = newWorker(10, 0.5);
+        long last = 0;
+        for (int i = 1; i <= 10; i++) {
+            last = worker.nextId("order");
+        }
+        // 后台预支拿到了 (10, 20]，还没有写回
+        assertTrue(incremented.await(5, TimeUnit.SECONDS));
+        // 号段用完，同步预支 (20, 30]，预支还没有结束，用到 25 时不会再次预支
+        for (int i = 21; i <= 30; i++) {
+            long id = worker.nextId("order");
+            assertEquals(i, id & 0xFFFFFFFFL);
+            assertTrue(id > last);
+            last = id;
+        }
+        // 预支写回 (10, 20]
+        release.countDown();
+        TimeUnit.MILLISECONDS.sleep(100);
+        // 切换号段时丢弃比当前小的 (10, 20]，同步预支 (30, 40]
+        long id = worker.nextId("order");
+        assertTrue(id > last, "id 不能变小");
+        assertEquals(31, id & 0xFFFFFFFFL);
+    }
+
+    // 不同节点预支的号段不重叠，多线程、多节点生成的 id 不重复
+    @Test
+    void idsAreUniqueAcrossThreadsAndWorkers() throws Exception {
+        RedisIdWorker first = newWorker(100, 0.8);
+        RedisIdWorker second = newWorker(100, 0.8);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<List<Long>>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                RedisIdWorker worker = t % 2 == 0 ? first : second;
+                futures.add(executor.submit(() -> {
+                    List<Long> ids = new ArrayList<>(1000);
+                    long last = 0;
+                    for (int i = 0; i < 1000; i++) {
+                        long id = worker.nextId("order");
+                        // 同一个线程拿到的 id 递增
+                        assertTrue(id > last);
+                        last = id;
+                        ids.add(id);
+                    }
+                    return ids;
+                }));
+            }
+            Set<Long> all = new HashSet<>();
+            for (Future<List<Long>> future : futures) {
+                all.addAll(future.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(8000, all.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // 不同的 keyPrefix 使用各自的号段
+    @Test
+    void prefixesHaveSeparateSegments() {
+        RedisIdWorker worker = newWorker(10, 1.0);
+        assertEquals(1, worker.nextId("order") & 0xFFFFFFFFL);
+        assertEquals(1, worker.nextId("blog") & 0xFFFFFFFFL);
+        assertEquals(2, worker.nextId("order") & 0xFFFFFFFFL);
+        assertEquals(10, counter("order"));
+        assertEquals(10, counter("blog"));
+    }
+
+    @Test
+    void composePutsTimestampInHighBits() {
+        assertEquals((5L << COUNT_BITS) | 7, RedisIdWorker.compose(5, 7));
+    }
+
+    private RedisIdWorker newWorker(int segmentSize, double prefetchRatio) {
+        RedisIdWorker worker = new RedisIdWorker(stringRedisTemplate);
+        ReflectionTestUtils.setField(worker, "segmentSize", segmentSize);
+        ReflectionTestUtils.setField(worker, "prefetchRatio", prefetchRatio);
+        workers.add(worker);
+        return worker;
+    }
+
+    // 当天这个前缀的计数器
+    private long counter(String keyPrefix) {
+        return counters.entrySet().stream()
+                .filter(entry -> entry.getKey().startsWith("icr:" + keyPrefix + ":"))
+                .mapToLong(entry -> entry.getValue().get())
+                .sum();
+    }
+}
@@ -0,0 +1,93 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.listener.Topic;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_SHARDS_KEY;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class SeckillStockTest {
+
+    private final StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+
+    @SuppressWarnings("unchecked")
+    private final ValueOperations<String, String> valueOperations = mock(ValueOperations.class);
+
+    private final RedisMessageListenerContainer container = mock(RedisMessageListenerContainer.class);
+
+    private MessageListener listener;
+
+    @BeforeEach
+    void setUp() {
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.get(SECKILL_STOCK_SHARDS_KEY + 1)).thenReturn("4");
+    }
+
+    // 每个分片的库存和已下单集合使用相同的 hash tag，不同分片的 hash tag 不同
+    @Test
+    void keysOfOneShardShareHashTag() {
+        SeckillStock seckillStock = newSeckillStock(60);
+        assertEquals("seckill:stock:{1:2}", seckillStock.stockKey(1L, 2));
+        assertEquals("seckill:order:{1:2}", seckillStock.orderKey(1L, 2));
+        assertEquals(3, seckillStock.homeShard(7L, 4));
+    }
+
+    // 分片数在本地缓存，过期以后重新读取，重新分片可以生效
+    @Test
+    void shardCountExpires() throws InterruptedException {
+        SeckillStock seckillStock = newSeckillStock(1);
+        assertEquals(4, seckillStock.shardsOf(1L));
+        when(valueOperations.get(SECKILL_STOCK_SHARDS_KEY + 1)).thenReturn("8");
+        assertEquals(4, seckillStock.shardsOf(1L));
+        verify(valueOperations, times(1)).get(SECKILL_STOCK_SHARDS_KEY + 1);
+
+        TimeUnit.MILLISECONDS.sleep(1100);
+        assertEquals(8, seckillStock.shardsOf(1L));
+    }
+
+    // 补充库存的广播清除分片数和已经扣完的分片
+    @Test
+    void clearBroadcastEvicts() {
+        SeckillStock seckillStock = newSeckillStock(60);
+        assertEquals(4, seckillStock.shardsOf(1L));
+        seckillStock.markDrained(1L, 2);
+        assertTrue(seckillStock.isDrained(1L, 2));
+        when(valueOperations.get(SECKILL_STOCK_SHARDS_KEY + 1)).thenReturn("8");
+
+        // 其他优惠券的消息不影响
+        publish("clear:2");
+        assertTrue(seckillStock.isDrained(1L, 2));
+        publish("soldOut:1");
+        assertTrue(seckillStock.isDrained(1L, 2));
+
+        publish("clear:1");
+        assertFalse(seckillStock.isDrained(1L, 2));
+        assertEquals(8, seckillStock.shardsOf(1L));
+    }
+
+    private SeckillStock newSeckillStock(long ttlSeconds) {
+        SeckillStock seckillStock = new SeckillStock(stringRedisTemplate, container, ttlSeconds);
+        ArgumentCaptor<MessageListener> captor = ArgumentCaptor.forClass(MessageListener.class);
+        verify(container).addMessageListener(captor.capture(), any(Topic.class));
+        listener = captor.getValue();
+        return seckillStock;
+    }
+
+    private void publish(String body) {
+        listener.onMessage(new DefaultMessage(SECKILL_SOLD_OUT_CHANNEL.getBytes(StandardCharsets.UTF_8),
+                body.getBytes(StandardCharsets.UTF_8)), null);
+    }
+}
@@ -0,0 +1,132 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightTest {
+
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    // 同一个 key 的并发调用只执行一次加载，所有线程拿到同一个结果
+    @Test
+    void concurrentCallsShareOneLoad() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> leader = executor.submit(() -> singleFlight.execute("shop:1", () -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            await(release);
+            return "shop-1";
+        }));
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+
+        List<Future<String>> followers = new ArrayList<>();
+        CountDownLatch started = new CountDownLatch(7);
+        for (int i = 0; i < 7; i++) {
+            followers.add(executor.submit(() -> {
+                started.countDown();
+                return singleFlight.execute("shop:1", () -> {
+                    loads.incrementAndGet();
+                    return "duplicate";
+                });
+            }));
+        }
+        // 等待其他线程都进入等待，再让加载结束
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        TimeUnit.MILLISECONDS.sleep(200);
+        release.countDown();
+
+        assertEquals("shop-1", leader.get(5, TimeUnit.SECONDS));
+        for (Future<String> follower : followers) {
+            assertEquals("shop-1", follower.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, loads.get());
+    }
+
+    // 不同的 key 互不影响
+    @Test
+    void differentKeysLoadIndependently() {
+        assertEquals("a", singleFlight.execute("shop:1", () -> "a"));
+        assertEquals("b", singleFlight.execute("shop:2", () -> "b"));
+    }
+
+    // 加载结束后立刻移除，下一次调用重新加载
+    @Test
+    void nextCallLoadsAgain() {
+        AtomicInteger loads = new AtomicInteger();
+        singleFlight.execute("shop:1", loads::incrementAndGet);
+        singleFlight.execute("shop:1", loads::incrementAndGet);
+        assertEquals(2, loads.get());
+    }
+
+    // 加载抛出的异常传给所有等待的线程，并且不会残留，下一次调用可以正常加载
+    @Test
+    void exceptionPropagatesToAllWaiters() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<Object> leader = executor.submit(() -> singleFlight.execute("shop:1", () -> {
+            loading.countDown();
+            await(release);
+            throw new IllegalStateException("db down");
+        }));
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+        Future<Object> follower = executor.submit(() -> singleFlight.execute("shop:1", () -> "duplicate"));
+        TimeUnit.MILLISECONDS.sleep(200);
+        release.countDown();
+
+        for (Future<Object> future : Arrays.asList(leader, follower)) {
+            Exception e = assertThrows(Exception.class, () -> future.get(5, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof IllegalStateException);
+            assertEquals("db down", e.getCause().getMessage());
+        }
+        assertEquals("ok", singleFlight.execute("shop:1", () -> "ok"));
+    }
+
+    // Error 包装成 RuntimeException 传给等待的线程
+    @Test
+    void errorOfLeaderIsWrappedForWaiters() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.submit(() -> singleFlight.execute("shop:1", () -> {
+            loading.countDown();
+            await(release);
+            throw new AssertionError("boom");
+        }));
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+        Future<Object> follower = executor.submit(() -> singleFlight.execute("shop:1", () -> "duplicate"));
+        TimeUnit.MILLISECONDS.sleep(200);
+        release.countDown();
+
+        Exception e = assertThrows(Exception.class, () -> follower.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof RuntimeException);
+        assertTrue(e.getCause().getCause() instanceof AssertionError);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
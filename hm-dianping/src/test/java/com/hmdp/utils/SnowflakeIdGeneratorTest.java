@@ -0,0 +1,184 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import static com.hmdp.utils.RedisConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class SnowflakeIdGeneratorTest {
+
+    // 和 SnowflakeIdGenerator 一致
+    private static final long BEGIN_MILLIS = 1640995200000L;
+    private static final int WORKER_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+
+    private static final long TTL_MILLIS = TimeUnit.SECONDS.toMillis(ID_WORKER_TTL);
+
+    private final StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+
+    @SuppressWarnings("unchecked")
+    private final ValueOperations<String, String> valueOperations = mock(ValueOperations.class);
+
+    // 可以控制的时钟
+    private final AtomicLong now = new AtomicLong(BEGIN_MILLIS + TimeUnit.DAYS.toMillis(365));
+
+    private SnowflakeIdGenerator generator;
+
+    @BeforeEach
+    void setUp() {
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.setIfAbsent(startsWith(ID_WORKER_KEY), anyString(), eq(ID_WORKER_TTL), eq(TimeUnit.SECONDS)))
+                .thenReturn(true);
+        generator = new SnowflakeIdGenerator(stringRedisTemplate);
+        ReflectionTestUtils.setField(generator, "clock", (LongSupplier) now::get);
+        ReflectionTestUtils.setField(generator, "maxBackwardMillis", 1000L);
+    }
+
+    // id 由毫秒时间戳、worker id、序列号组成，同一毫秒内序列号递增
+    @Test
+    void idLayout() {
+        acquire();
+        long workerId = workerId();
+        long first = generator.nextId("order");
+        long second = generator.nextId("order");
+
+        assertEquals(now.get() - BEGIN_MILLIS, first >>> (WORKER_BITS + SEQUENCE_BITS));
+        assertEquals(workerId, (first >>> SEQUENCE_BITS) & ((1 << WORKER_BITS) - 1));
+        assertEquals(0, first & ((1 << SEQUENCE_BITS) - 1));
+        assertEquals(first + 1, second);
+
+        now.incrementAndGet();
+        long third = generator.nextId("order");
+        assertEquals(now.get() - BEGIN_MILLIS, third >>> (WORKER_BITS + SEQUENCE_BITS));
+        assertEquals(0, third & ((1 << SEQUENCE_BITS) - 1));
+    }
+
+    // 一毫秒内的序列号用完时进位到下一毫秒，不会重复
+    @Test
+    void sequenceOverflowBorrowsNextMillisecond() {
+        acquire();
+        long last = 0;
+        for (int i = 0; i < (1 << SEQUENCE_BITS) + 10; i++) {
+            long id = generator.nextId("order");
+            assertTrue(id > last);
+            last = id;
+        }
+        assertEquals(now.get() - BEGIN_MILLIS + 1, last >>> (WORKER_BITS + SEQUENCE_BITS));
+    }
+
+    // 时钟回拨不超过 max-backward-millis 时继续在上一次的毫秒上递增
+    @Test
+    void smallClockRollbackKeepsIncreasing() {
+        acquire();
+        long before = generator.nextId("order");
+        now.addAndGet(-500);
+        long after = generator.nextId("order");
+        assertTrue(after > before);
+        assertEquals(before + 1, after);
+        // 时钟追上以后恢复正常
+        now.addAndGet(501);
+        assertTrue(generator.nextId("order") > after);
+    }
+
+    // 时钟回拨超过 max-backward-millis 时拒绝生成
+    @Test
+    void largeClockRollbackIsRejected() {
+        acquire();
+        generator.nextId("order");
+        now.addAndGet(-1001);
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> generator.nextId("order"));
+        assertTrue(e.getMessage().contains("时钟回拨"));
+    }
+
+    // 重新租到 worker id 时从上一个使用者最后的时间戳之后开始，重启时的时钟回拨也不会重复
+    @Test
+    void resumesAfterLastTimeOfPreviousHolder() {
+        long lastMillis = now.get() - BEGIN_MILLIS + 300;
+        when(valueOperations.get(startsWith(ID_WORKER_TIME_KEY))).thenReturn(String.valueOf(lastMillis));
+        acquire();
+        long id = generator.nextId("order");
+        assertEquals(lastMillis + 1, id >>> (WORKER_BITS + SEQUENCE_BITS));
+    }
+
+    // 被其他节点占用的 worker id 跳过
+    @Test
+    void acquireSkipsTakenWorkerIds() {
+        when(valueOperations.setIfAbsent(startsWith(ID_WORKER_KEY), anyString(), eq(ID_WORKER_TTL), eq(TimeUnit.SECONDS)))
+                .thenReturn(false, false, true);
+        acquire();
+        verify(valueOperations, times(3))
+                .setIfAbsent(startsWith(ID_WORKER_KEY), anyString(), eq(ID_WORKER_TTL), eq(TimeUnit.SECONDS));
+        generator.nextId("order");
+    }
+
+    // 本地租约比 Redis 的过期时间少一个续期间隔，续期失败时在 Redis 中的租约过期之前就停止生成
+    @Test
+    void leaseExpiresBeforeRedisTtl() {
+        acquire();
+        long acquiredAt = now.get();
+        when(stringRedisTemplate.execute(any(RedisScript.class), anyList(), any(), any()))
+                .thenThrow(new IllegalStateException("redis down"));
+        now.set(acquiredAt + TTL_MILLIS / 3);
+        renew();
+        generator.nextId("order");
+
+        now.set(acquiredAt + TTL_MILLIS - TTL_MILLIS / 3 + 1);
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> generator.nextId("order"));
+        assertTrue(e.getMessage().contains("租约已经过期"));
+        assertTrue(now.get() < acquiredAt + TTL_MILLIS, "Redis 中的租约还没有过期");
+    }
+
+    // 续期成功时延长本地租约，并保存最后使用的时间戳
+    @Test
+    void renewExtendsLease() {
+        acquire();
+        when(stringRedisTemplate.execute(any(RedisScript.class), anyList(), any(), any())).thenReturn(1L);
+        long lastTime = 0;
+        for (int i = 1; i <= 5; i++) {
+            now.addAndGet(TTL_MILLIS / 3);
+            renew();
+            lastTime = now.get() - BEGIN_MILLIS;
+            generator.nextId("order");
+        }
+        verify(valueOperations, atLeastOnce()).set(startsWith(ID_WORKER_TIME_KEY), anyString());
+        verify(valueOperations).set(startsWith(ID_WORKER_TIME_KEY), eq(String.valueOf(lastTime - TTL_MILLIS / 3)));
+    }
+
+    // 租约被其他节点拿走时立刻停止使用，重新租用一个 worker id
+    @Test
+    void lostLeaseIsReacquired() {
+        acquire();
+        long oldWorkerId = workerId();
+        when(stringRedisTemplate.execute(any(RedisScript.class), anyList(), any(), any())).thenReturn(0L);
+        when(valueOperations.setIfAbsent(eq(ID_WORKER_KEY + oldWorkerId), anyString(), anyLong(), any()))
+                .thenReturn(false);
+        now.addAndGet(TTL_MILLIS / 3);
+        renew();
+        assertNotEquals(oldWorkerId, workerId());
+        long id = generator.nextId("order");
+        assertEquals(workerId(), (id >>> SEQUENCE_BITS) & ((1 << WORKER_BITS) - 1));
+    }
+
+    private void acquire() {
+        ReflectionTestUtils.invokeMethod(generator, "acquire");
+    }
+
+    private void renew() {
+        ReflectionTestUtils.invokeMethod(generator, "renew");
+    }
+
+    private long workerId() {
+        return (long) ReflectionTestUtils.getField(generator, "workerId");
+    }
+}